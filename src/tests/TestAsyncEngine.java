@@ -0,0 +1,99 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import vad.AIPlayer;
+import vad.AsyncEngine;
+import vad.GameBoard;
+import vad.ScoredMove;
+import vad.TimeManager;
+
+public class TestAsyncEngine {
+	/*
+	 * Wait until the running search completed its first iteration
+	 */
+	private static void awaitFirstIteration(AsyncEngine engine) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while (engine.getPlayer().getCompletedDepth() < 1 && System.nanoTime() < deadline)
+			Thread.sleep(5);
+		assertTrue(engine.getPlayer().getCompletedDepth() >= 1);
+	}
+
+	@Test
+	public void testStopReturnsCompletedIteration() throws Exception {
+		GameBoard board = GameBoard.fromFEN(TestPerft.MIDDLEGAME);
+		AsyncEngine engine = new AsyncEngine(new AIPlayer(board.getCurrentColor(), 0, 16, false));
+		CompletableFuture<ScoredMove> future = engine.startSearch(board, TimeManager.moveTime(60));
+		awaitFirstIteration(engine);
+		assertTrue(engine.isSearching());
+
+		ScoredMove best = engine.stop().get(30, TimeUnit.SECONDS);
+		assertNotNull(best.move);
+		assertTrue(future.isDone());
+		assertFalse(engine.isSearching());
+
+		/* The engine can search again after a stop */
+		best = engine.startSearch(board, TimeManager.fixedDepth(3)).get(30, TimeUnit.SECONDS);
+		assertNotNull(best.move);
+	}
+
+	@Test
+	public void testCancelThenRestart() throws Exception {
+		GameBoard board = GameBoard.fromFEN(TestPerft.MIDDLEGAME);
+		AsyncEngine engine = new AsyncEngine(new AIPlayer(board.getCurrentColor(), 0, 16, false));
+		CompletableFuture<ScoredMove> future = engine.startSearch(board, TimeManager.moveTime(60));
+		awaitFirstIteration(engine);
+		assertTrue(future.cancel(true));
+		assertTrue(future.isDone());
+
+		/* The cancelled search still completes with the result of its last iteration */
+		ScoredMove best = engine.stop().get(30, TimeUnit.SECONDS);
+		assertNotNull(best.move);
+		assertFalse(engine.isSearching());
+
+		best = engine.startSearch(board, TimeManager.fixedDepth(3)).get(30, TimeUnit.SECONDS);
+		assertNotNull(best.move);
+		assertFalse(engine.isSearching());
+	}
+
+	@Test
+	public void testDirectExecutor() throws Exception {
+		GameBoard board = GameBoard.fromFEN(TestPerft.MIDDLEGAME);
+		AsyncEngine engine = new AsyncEngine(new AIPlayer(board.getCurrentColor(), 0, 16, false), Runnable::run);
+		/* The search runs inside startSearch and is over when it returns */
+		CompletableFuture<ScoredMove> future = engine.startSearch(board, TimeManager.fixedDepth(2));
+		assertTrue(future.isDone());
+		assertNotNull(future.get().move);
+		assertFalse(engine.isSearching());
+
+		assertNotNull(engine.startSearch(board, TimeManager.fixedDepth(2)).get().move);
+		assertFalse(engine.isSearching());
+	}
+
+	@Test
+	public void testRejectedSearch() throws Exception {
+		GameBoard board = GameBoard.fromFEN(TestPerft.MIDDLEGAME);
+		AsyncEngine engine = new AsyncEngine(new AIPlayer(board.getCurrentColor(), 0, 16, false), task -> {
+			throw new RejectedExecutionException("full");
+		});
+		for (int i = 0; i < 2; i++) {
+			try {
+				engine.startSearch(board, TimeManager.fixedDepth(2));
+				fail("The search was not rejected");
+			} catch (RejectedExecutionException e) {
+				assertEquals("full", e.getMessage());
+			}
+			assertFalse(engine.isSearching());
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package tests;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -7,7 +9,11 @@ import org.junit.Test;
 import vad.CompressedGameBoard;
 import vad.GameBoard;
 import vad.Move;
+import vad.MoveList;
+import vad.Piece;
 import vad.Position;
+import vad.SearchBenchmark;
+import vad.Zobrist;
 
 public class TestGameBoard {
 	private GameBoard gb;
@@ -39,4 +45,93 @@ public class TestGameBoard {
 		assertTrue(!cb3.equals(cb1));
 		assertTrue(!cb3.equals(cb2));
 	}
+
+	@Test
+	public void testZobristApplyUndo() {
+		GameBoard board = new GameBoard();
+		long key = board.getZobristKey();
+		assertEquals(Zobrist.compute(board), key);
+		Move m = new Move(board, Position.get(4, 6), Position.get(4, 4));
+		board.apply(m);
+		assertTrue(board.getZobristKey() != key);
+		assertEquals(Zobrist.compute(board), board.getZobristKey());
+		board.undo(m);
+		assertEquals(key, board.getZobristKey());
+	}
+
+	@Test
+	public void testZobristTransposition() {
+		GameBoard a = new GameBoard();
+		a.apply(new Move(a, Position.get(1, 7), Position.get(2, 5)));
+		a.apply(new Move(a, Position.get(1, 0), Position.get(2, 2)));
+		a.apply(new Move(a, Position.get(6, 7), Position.get(5, 5)));
+
+		GameBoard b = new GameBoard();
+		b.apply(new Move(b, Position.get(6, 7), Position.get(5, 5)));
+		b.apply(new Move(b, Position.get(1, 0), Position.get(2, 2)));
+		b.apply(new Move(b, Position.get(1, 7), Position.get(2, 5)));
+
+		assertEquals(a.getZobristKey(), b.getZobristKey());
+		assertEquals(a.getZobristKey(), a.copy().getZobristKey());
+	}
+
+	@Test
+	public void testNullMove() {
+		GameBoard board = new GameBoard();
+		long key = board.getZobristKey();
+		board.applyNullMove();
+		assertEquals(Piece.BLACK, board.getCurrentColor());
+		assertEquals(Zobrist.compute(board), board.getZobristKey());
+		board.undoNullMove();
+		assertEquals(Piece.WHITE, board.getCurrentColor());
+		assertEquals(key, board.getZobristKey());
+	}
+
+	@Test
+	public void testRepetition() {
+		GameBoard board = SearchBenchmark.playMoves("e2e4 e7e5 g1f3 g8f6 f3g1 f6g8");
+		assertEquals(1, board.getRepetitions());
+		assertTrue(board.isRepetition(2));
+		assertFalse(board.isRepetition(board.getPlies()));
+
+		board = SearchBenchmark.playMoves("e2e4 e7e5 g1f3 g8f6 f3g1 f6g8 g1f3 g8f6 f3g1 f6g8");
+		assertEquals(2, board.getRepetitions());
+		assertTrue(board.isRepetition(board.getPlies()));
+
+		/* Only the position after the pawn move repeats */
+		board = SearchBenchmark.playMoves("e2e4 e7e5 g1f3 g8f6 d2d3 f6g8 f3g1 g8f6 g1f3");
+		assertEquals(1, board.getRepetitions());
+
+		/* Positions before a null move are not compared */
+		board = SearchBenchmark.playMoves("g1f3 g8f6 f3g1");
+		board.applyNullMove();
+		board.apply(new Move(board, Position.fromAlgebraic("g1"), Position.fromAlgebraic("f3")));
+		board.apply(new Move(board, Position.fromAlgebraic("f6"), Position.fromAlgebraic("g8")));
+		assertEquals(0, board.getRepetitions());
+	}
+
+	@Test
+	public void testPackedMoves() {
+		GameBoard board = GameBoard.fromFEN("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1");
+		MoveList moves = new MoveList();
+		for (int color = 0; color < 2; color++) {
+			board.getAllPossibleMoves(color, moves);
+			for (int i = 0; i < moves.size(); i++) {
+				int packed = moves.get(i);
+				Move m = new Move(packed);
+				assertEquals(packed, m.pack());
+				assertEquals(m, new Move(board, m.getStartPosition(), m.getDestPosition()));
+			}
+		}
+
+		String layout = board.toString();
+		long key = board.getZobristKey();
+		board.getAllPossibleMoves(board.getCurrentColor(), moves);
+		for (int i = 0; i < moves.size(); i++) {
+			board.apply(moves.get(i));
+			board.undo(moves.get(i));
+			assertEquals(layout, board.toString());
+			assertEquals(key, board.getZobristKey());
+		}
+	}
 }
@@ -0,0 +1,82 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import vad.GameBoard;
+import vad.MoveHelper;
+import vad.MoveList;
+import vad.MovePicker;
+import vad.PackedMove;
+
+public class TestMovePicker {
+	private static final String[] FENS = { GameBoard.START_FEN, TestPerft.KIWIPETE, TestPerft.ENDGAME,
+			TestPerft.PROMOTIONS, TestPerft.POSITION_5, TestPerft.MIDDLEGAME };
+
+	private static Set<Integer> pick(MovePicker picker) {
+		Set<Integer> picked = new HashSet<>();
+		for (int m = picker.next(); m != PackedMove.NONE; m = picker.next())
+			assertTrue("picked twice: " + PackedMove.toAlgebraic(m), picked.add(m));
+		return picked;
+	}
+
+	private static Set<Integer> toSet(MoveList moves) {
+		Set<Integer> set = new HashSet<>();
+		for (int i = 0; i < moves.size(); i++)
+			set.add(moves.get(i));
+		return set;
+	}
+
+	@Test
+	public void testPicksEveryMoveOnce() {
+		MovePicker picker = new MovePicker();
+		MoveList moves = new MoveList();
+		int[][] history = new int[64][64];
+		for (String fen : FENS) {
+			GameBoard board = GameBoard.fromFEN(fen);
+			board.getAllPossibleMoves(board.getCurrentColor(), moves);
+			Set<Integer> legal = toSet(moves);
+
+			/* Any legal move as hash move, killers that are legal or not */
+			int hashMove = moves.get(moves.size() / 2);
+			int[] killers = { moves.get(0), moves.get(moves.size() - 1) };
+			picker.init(board, hashMove, killers, history);
+			assertEquals(hashMove, picker.next());
+			Set<Integer> picked = pick(picker);
+			picked.add(hashMove);
+			assertEquals(fen, legal, picked);
+
+			picker.init(board, PackedMove.NONE, new int[] { PackedMove.NONE, 12345 }, history);
+			assertEquals(fen, legal, pick(picker));
+
+			/* Quiescence skips the captures that lose material */
+			board.getAllPossibleCaptures(board.getCurrentColor(), moves);
+			Set<Integer> captures = new HashSet<>();
+			for (int i = 0; i < moves.size(); i++)
+				if (MoveHelper.seeAtLeast(board, moves.get(i), 0))
+					captures.add(moves.get(i));
+			picker.initCaptures(board);
+			assertEquals(fen, captures, pick(picker));
+		}
+	}
+
+	@Test
+	public void testMostValuableVictimFirst() {
+		/* Kiwipete has no promotions, captures come by victim value */
+		int[] values = { 100, 9, 5, 3, 3, 1 };
+		GameBoard board = GameBoard.fromFEN(TestPerft.KIWIPETE);
+		MovePicker picker = new MovePicker();
+		picker.initCaptures(board);
+		int last = Integer.MAX_VALUE;
+		for (int m = picker.next(); m != PackedMove.NONE; m = picker.next()) {
+			int victim = values[PackedMove.getCapturedType(m)];
+			assertTrue(PackedMove.toAlgebraic(m), victim <= last);
+			last = victim;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Test;
+
+import vad.BookBuilder;
+import vad.GameBoard;
+import vad.OpeningBook;
+import vad.PackedMove;
+
+public class TestOpeningBook {
+	private static final String PGN = "[Event \"a\"]\n[Result \"1-0\"]\n\n"
+			+ "1. e4 e5 {main line} 2. Nf3 (2. Nc3 Nf6) Nc6 3. Bb5 a6 1-0\n\n"
+			+ "[Event \"b\"]\n[Result \"1/2-1/2\"]\n\n1.e4 c5 2.Nf3 $1 d6 ; comment\n3. d4 1/2-1/2\n\n"
+			+ "[Event \"c\"]\n[Result \"0-1\"]\n\n1. d4 d5 0-1\n\n"
+			/* From a set-up position, the moves would parse from the start position too */
+			+ "[Event \"d\"]\n[SetUp \"1\"]\n[FEN \"4k3/8/8/8/8/8/4P3/4K3 w - - 0 1\"]\n\n1. e4 e5 *\n\n"
+			/* No result and no playable move, must not cost the next game */
+			+ "[Event \"e\"]\n\n1. Ke2\n\n"
+			+ "[Event \"f\"]\n[Result \"1-0\"]\n\n1. d4 Nf6 1-0\n";
+
+	private static String san(String fen, String san) {
+		return PackedMove.toAlgebraic(PackedMove.fromSan(GameBoard.fromFEN(fen), san));
+	}
+
+	@Test
+	public void testFromSan() {
+		assertEquals("e2e4", san("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq -", "e4"));
+		assertEquals("g1f3", san("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq -", "Nf3!"));
+		assertEquals("none", san("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq -", "e5"));
+		assertEquals("e1g1", san(TestPerft.KIWIPETE, "O-O"));
+		assertEquals("e1c1", san(TestPerft.KIWIPETE, "O-O-O+"));
+		assertEquals("e5d7", san(TestPerft.KIWIPETE, "Nxd7"));
+		assertEquals("a1b3", san("4k3/8/8/8/8/8/8/N1N1K3 w - -", "Nab3"));
+		assertEquals("none", san("4k3/8/8/8/8/8/8/N1N1K3 w - -", "Nb3"));
+		assertEquals("b2a1q", san(TestPerft.PROMOTIONS.replace(" w ", " b "), "bxa1=Q"));
+		assertEquals("none", san(TestPerft.PROMOTIONS.replace(" w ", " b "), "bxa1=N"));
+	}
+
+	@Test
+	public void testBuildAndProbe() throws Exception {
+		BookBuilder builder = new BookBuilder(4);
+		builder.addGames(new StringReader(PGN));
+		assertEquals(4, builder.getNumGames());
+
+		Path file = Files.createTempFile("book", ".bin");
+		try {
+			/* The first 4 plies of each game, e4 and d4 were played twice */
+			assertEquals(2, builder.write(file, 2));
+			assertEquals(10, builder.write(file, 1));
+			OpeningBook book = OpeningBook.open(file);
+			assertEquals(10, book.getNumEntries());
+
+			GameBoard board = new GameBoard();
+			assertEquals(2, book.getNumMoves(board));
+			Random random = new Random(1);
+			boolean[] seen = new boolean[2];
+			for (int i = 0; i < 40; i++) {
+				String move = PackedMove.toAlgebraic(book.probe(board, random));
+				assertTrue(move, move.equals("e2e4") || move.equals("d2d4"));
+				seen[move.equals("e2e4") ? 0 : 1] = true;
+			}
+			assertTrue(seen[0] && seen[1]);
+
+			/* Nf6 lost its only game, d5 won */
+			GameBoard d4 = new GameBoard();
+			d4.apply(PackedMove.fromSan(d4, "d4"));
+			assertEquals(2, book.getNumMoves(d4));
+			for (int i = 0; i < 20; i++)
+				assertEquals("d7d5", PackedMove.toAlgebraic(book.probe(d4, random)));
+
+			board.apply(PackedMove.fromSan(board, "e4"));
+			assertEquals(2, book.getNumMoves(board));
+			for (int i = 0; i < 20; i++)
+				assertEquals("c7c5", PackedMove.toAlgebraic(book.probe(board, random)));
+			board.apply(PackedMove.fromSan(board, "c5"));
+			assertEquals("g1f3", PackedMove.toAlgebraic(book.probe(board, random)));
+			board.apply(PackedMove.fromSan(board, "Nf3"));
+			board.apply(PackedMove.fromSan(board, "d6"));
+			assertEquals(PackedMove.NONE, book.probe(board, random));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testGamesAboveCap() throws Exception {
+		/* e4 scores 33% in 70000 games, below MIN_SCORE only if its points are scaled with the games */
+		StringBuilder pgn = new StringBuilder();
+		for (int i = 0; i < 70000; i++)
+			pgn.append(i < 23100 ? "1. e4 1-0\n\n" : "1. e4 0-1\n\n");
+		pgn.append("1. d4 1-0\n");
+		BookBuilder builder = new BookBuilder(1);
+		builder.addGames(new StringReader(pgn.toString()));
+		assertEquals(70001, builder.getNumGames());
+
+		Path file = Files.createTempFile("book", ".bin");
+		try {
+			assertEquals(2, builder.write(file, 1));
+			OpeningBook book = OpeningBook.open(file);
+			GameBoard board = new GameBoard();
+			Random random = new Random(1);
+			for (int i = 0; i < 20; i++)
+				assertEquals("d2d4", PackedMove.toAlgebraic(book.probe(board, random)));
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import vad.GameBoard;
+import vad.Move;
+import vad.Perft;
+
+/**
+ * Known perft counts. The engine promotes to queens only and has no en
+ * passant, so published counts are adjusted where those moves occur: the
+ * start position at depth 5 has 258 en passant captures fewer, Kiwipete at
+ * depth 2 one fewer and position 4 at depth 2 has no underpromotions. Deeper
+ * counts that differ from the published ones were cross-checked against the
+ * make/unmake generator.
+ */
+public class TestPerft {
+	public static final String KIWIPETE = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -";
+	public static final String ENDGAME = "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - -";
+	public static final String PROMOTIONS = "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1";
+	public static final String POSITION_5 = "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8";
+	public static final String MIDDLEGAME = "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10";
+
+	private static void assertPerft(String fen, long... counts) {
+		GameBoard board = GameBoard.fromFEN(fen);
+		for (int depth = 1; depth <= counts.length; depth++)
+			assertEquals(fen + " depth " + depth, counts[depth - 1], Perft.perft(board, depth));
+	}
+
+	@Test
+	public void testStartPosition() {
+		assertPerft(GameBoard.START_FEN, 20, 400, 8902, 197281, 4865351);
+		assertEquals(197281, Perft.perft(new GameBoard(), 4));
+	}
+
+	@Test
+	public void testKiwipete() {
+		assertPerft(KIWIPETE, 48, 2038, 97766);
+	}
+
+	@Test
+	public void testEndgame() {
+		assertPerft(ENDGAME, 14, 191, 2810, 43087);
+	}
+
+	@Test
+	public void testPromotions() {
+		assertPerft(PROMOTIONS, 6, 228, 8083);
+	}
+
+	@Test
+	public void testPosition5() {
+		assertPerft(POSITION_5, 41, 1373, 54007);
+	}
+
+	@Test
+	public void testMiddlegame() {
+		assertPerft(MIDDLEGAME, 46, 2079, 89890, 3894594);
+	}
+
+	@Test
+	public void testDivideModesAgree() {
+		GameBoard board = GameBoard.fromFEN(KIWIPETE);
+		long expected = Perft.perft(board, 3);
+		assertEquals(expected, sum(Perft.divide(board, 3, null)));
+		assertEquals(expected, sum(Perft.parallelDivide(board, 3, null, ForkJoinPool.commonPool())));
+		Perft.HashTable table = new Perft.HashTable(16);
+		assertEquals(expected, sum(Perft.parallelDivide(board, 3, table, ForkJoinPool.commonPool())));
+		assertEquals(expected, Perft.perft(board, 3, table));
+	}
+
+	@Test
+	public void testBoardRestored() {
+		GameBoard board = GameBoard.fromFEN(KIWIPETE);
+		long key = board.getZobristKey();
+		String layout = board.toString();
+		Perft.perft(board, 3);
+		assertEquals(key, board.getZobristKey());
+		assertEquals(layout, board.toString());
+	}
+
+	private static long sum(Map<Move, Long> counts) {
+		long nodes = 0;
+		for (long n : counts.values())
+			nodes += n;
+		return nodes;
+	}
+}
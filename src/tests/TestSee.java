@@ -0,0 +1,67 @@
+package tests;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import vad.GameBoard;
+import vad.MoveHelper;
+import vad.MoveList;
+import vad.PackedMove;
+
+public class TestSee {
+	private static int find(GameBoard board, String move) {
+		MoveList moves = new MoveList();
+		board.getAllPossibleMoves(board.getCurrentColor(), moves);
+		for (int i = 0; i < moves.size(); i++)
+			if (PackedMove.toAlgebraic(moves.get(i)).startsWith(move))
+				return moves.get(i);
+		throw new AssertionError("no move " + move);
+	}
+
+	/* Asserts the exchange after the move is worth exactly value */
+	private static void assertSee(String fen, String move, int value) {
+		GameBoard board = GameBoard.fromFEN(fen);
+		int m = find(board, move);
+		assertTrue(fen + " " + move, MoveHelper.seeAtLeast(board, m, value));
+		assertFalse(fen + " " + move, MoveHelper.seeAtLeast(board, m, value + 1));
+	}
+
+	@Test
+	public void testUndefended() {
+		assertSee("1k1r4/1pp4p/p7/4p3/8/P5P1/1PP4P/2K1R3 w - -", "e1e5", 1);
+	}
+
+	@Test
+	public void testQueenTakesDefendedPawn() {
+		assertSee("4k3/8/3p4/4p3/8/8/4Q3/4K3 w - -", "e2e5", 1 - 9);
+	}
+
+	@Test
+	public void testXRay() {
+		/* The second rook recaptures through the first */
+		assertSee("4k3/4r3/8/4p3/8/8/4R3/4R1K1 w - -", "e2e5", 1);
+		assertSee("4k3/4r3/4r3/4p3/8/8/4R3/4R1K1 w - -", "e2e5", 1 - 5);
+	}
+
+	@Test
+	public void testKingRecapture() {
+		assertSee("8/8/4k3/3p4/4P3/8/8/4K3 w - -", "e4d5", 0);
+		/* The king can't recapture on a defended square */
+		assertSee("8/8/4k3/3p4/4P3/8/8/3RK3 w - -", "e4d5", 1);
+	}
+
+	@Test
+	public void testLosingKnightCapture() {
+		GameBoard board = GameBoard.fromFEN("1k1r3q/1ppn3p/p4b2/4p3/8/P2N2P1/1PP1R1BP/2K1Q3 w - -");
+		assertFalse(MoveHelper.seeAtLeast(board, find(board, "d3e5"), 0));
+	}
+
+	@Test
+	public void testPromotion() {
+		assertSee("4k3/1P6/8/8/8/8/8/4K3 w - -", "b7b8", 9 - 1);
+		assertSee("1r2k3/P7/8/8/8/8/8/4K3 w - -", "a7a8", 9 - 1 - 9);
+		assertSee("1r2k3/P7/8/8/8/8/8/4K3 w - -", "a7b8", 5 + 9 - 1);
+	}
+}
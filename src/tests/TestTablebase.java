@@ -0,0 +1,69 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import vad.AIPlayer;
+import vad.GameBoard;
+import vad.Move;
+import vad.PackedMove;
+import vad.Tablebase;
+import vad.TablebaseGenerator;
+import vad.Tablebases;
+import vad.TimeManager;
+
+public class TestTablebase {
+	private static int probe(Tablebases tablebases, String fen) {
+		return tablebases.probe(GameBoard.fromFEN(fen));
+	}
+
+	@Test
+	public void testGenerate() throws Exception {
+		Path dir = Files.createTempDirectory("tb");
+		try {
+			TablebaseGenerator generator = new TablebaseGenerator(dir, 2);
+			/* Longest mates: 10 moves with the queen, 16 with the rook */
+			assertEquals(20, generator.generate("KQK").getMaxPlies());
+			assertEquals(32, generator.generate("KKR").getMaxPlies());
+			generator.generate("KPK");
+
+			Tablebases tablebases = Tablebases.load(dir);
+			assertEquals(3, tablebases.getNumTables());
+			assertEquals(1, probe(tablebases, "k7/2Q5/1K6/8/8/8/8/8 w - -"));
+			assertEquals(1, probe(tablebases, "7k/5Q2/6K1/8/8/8/8/8 w - -"));
+			assertEquals(1, probe(tablebases, "K7/2q5/1k6/8/8/8/8/8 b - -"));
+			assertEquals(-1, probe(tablebases, "k7/1Q6/1K6/8/8/8/8/8 b - -"));
+			assertEquals(Tablebase.DRAW, probe(tablebases, "k7/2Q5/1K6/8/8/8/8/8 b - -"));
+			assertEquals(Tablebase.DRAW, probe(tablebases, "4k3/4P3/4K3/8/8/8/8/8 b - -"));
+			assertTrue(probe(tablebases, "4k3/8/4K3/4P3/8/8/8/8 w - -") > 0);
+			assertTrue(probe(tablebases, "4k3/8/4K3/4P3/8/8/8/8 b - -") < 0);
+			assertEquals(Tablebase.UNKNOWN, probe(tablebases, "4k3/8/4K3/4B3/8/8/8/8 w - -"));
+
+			GameBoard board = GameBoard.fromFEN("k7/2Q5/1K6/8/8/8/8/8 w - -");
+			int move = tablebases.bestMove(board);
+			board.apply(move);
+			assertEquals(PackedMove.toAlgebraic(move), -1, tablebases.probe(board));
+
+			/* The search scores the tables and finds the mate too */
+			board = GameBoard.fromFEN("k7/2Q5/1K6/8/8/8/8/8 w - -");
+			AIPlayer player = new AIPlayer(board.getCurrentColor(), 0, 16, false);
+			player.setTablebases(tablebases);
+			player.setTimeManager(TimeManager.fixedDepth(4));
+			Move best = player.getBestMove(board, 4);
+			board.apply(best);
+			assertEquals(best.toString(), -1, tablebases.probe(board));
+		} finally {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+				for (Path file : files)
+					Files.delete(file);
+			}
+			Files.delete(dir);
+		}
+	}
+}
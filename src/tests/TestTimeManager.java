@@ -0,0 +1,73 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import vad.AIPlayer;
+import vad.GameBoard;
+import vad.Move;
+import vad.TimeManager;
+
+public class TestTimeManager {
+	private static Move search(TimeManager manager) {
+		GameBoard board = GameBoard.fromFEN(TestPerft.MIDDLEGAME);
+		AIPlayer player = new AIPlayer(board.getCurrentColor(), 0, 16, false);
+		player.setTimeManager(manager);
+		return player.getBestMove(board, 100);
+	}
+
+	@Test
+	public void testFixedNodesIsReproducible() {
+		assertEquals(search(TimeManager.fixedNodes(20000)), search(TimeManager.fixedNodes(20000)));
+	}
+
+	@Test
+	public void testClockLimits() {
+		GameBoard board = new GameBoard();
+		/* 950 ms after the overhead over 40 moves, plus 3/4 of the increment */
+		TimeManager clock = TimeManager.clock(1000, 100, 0);
+		clock.startSearch(board);
+		assertEquals(98, clock.getSoftLimitMs());
+		assertEquals(395, clock.getHardLimitMs());
+
+		/* With two moves to go, capped by the time left */
+		clock = TimeManager.clock(1000, 100, 2);
+		clock.startSearch(board);
+		assertEquals(550, clock.getSoftLimitMs());
+		assertEquals(950, clock.getHardLimitMs());
+
+		TimeManager depth = TimeManager.fixedDepth(5);
+		depth.startSearch(board);
+		assertEquals(Long.MAX_VALUE, depth.getHardLimitMs());
+	}
+
+	@Test
+	public void testClockIsBooked() {
+		GameBoard board = new GameBoard();
+		TimeManager clock = TimeManager.clock(1000, 100, 2);
+		long before = System.nanoTime();
+		clock.startSearch(board);
+		clock.endSearch();
+		long usedMs = (System.nanoTime() - before) / 1000000;
+		/* The time used is taken off and the increment added */
+		assertTrue(clock.getRemainingMs() <= 1100);
+		assertTrue(clock.getRemainingMs() >= 1100 - usedMs - 1);
+
+		/* One move is left to the time control, it may use all but the overhead */
+		clock.startSearch(board);
+		assertEquals(clock.getRemainingMs() - 50, clock.getHardLimitMs());
+		assertEquals(clock.getHardLimitMs(), clock.getSoftLimitMs());
+	}
+
+	@Test
+	public void testFixedDepthBeyondMaxPly() {
+		/* Few moves but no repetitions, the search reaches the deepest iteration */
+		GameBoard board = GameBoard.fromFEN("k7/8/8/8/8/8/7P/7K w - -");
+		AIPlayer player = new AIPlayer(board.getCurrentColor(), 0, 16, false);
+		player.setTimeManager(TimeManager.fixedDepth(200));
+		player.getBestMove(board, 200);
+		assertEquals(AIPlayer.MAX_DEPTH, player.getCompletedDepth());
+	}
+}
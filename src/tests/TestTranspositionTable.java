@@ -0,0 +1,75 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import vad.OffHeapTranspositionTable;
+import vad.TranspositionTable;
+import vad.TranspositionTableEntry;
+
+public class TestTranspositionTable {
+	private static void assertStoresEntries(TranspositionTable table) {
+		TranspositionTableEntry entry = new TranspositionTableEntry();
+		long key = 0x123456789ABCDEFL;
+		assertFalse(table.probe(key, entry));
+		table.store(key, -50, 70, 5, 0x3C5);
+		assertTrue(table.probe(key, entry));
+		assertEquals(-50, entry.getLower());
+		assertEquals(70, entry.getUpper());
+		assertEquals(5, entry.getDepth());
+		assertEquals(0x3C5, entry.getMove());
+		/* Same bucket, other key */
+		assertFalse(table.probe(key ^ 0xF00000000000000L, entry));
+		table.clear();
+		assertFalse(table.probe(key, entry));
+	}
+
+	@Test
+	public void testHeapTable() {
+		assertStoresEntries(new TranspositionTable(1));
+	}
+
+	@Test
+	public void testOffHeapTable() {
+		TranspositionTable table = new OffHeapTranspositionTable(1);
+		assertEquals(1, table.getSizeMB());
+		assertStoresEntries(table);
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		Path file = Files.createTempFile("tt", ".bin");
+		try {
+			TranspositionTable table = new TranspositionTable(1);
+			TranspositionTableEntry entry = new TranspositionTableEntry();
+			table.store(42, 1, 2, 3, 0x3C5);
+			table.save(file);
+
+			TranspositionTable loaded = new OffHeapTranspositionTable(1);
+			assertTrue(loaded.load(file));
+			assertTrue(loaded.probe(42, entry));
+			assertEquals(3, entry.getDepth());
+			assertFalse(new TranspositionTable(2).load(file));
+
+			/* A flipped bit fails the checksum */
+			try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+				raf.seek(1000);
+				int b = raf.read();
+				raf.seek(1000);
+				raf.write(b ^ 1);
+			}
+			assertFalse(loaded.load(file));
+			assertFalse(loaded.probe(42, entry));
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
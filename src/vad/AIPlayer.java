@@ -1,16 +1,18 @@
 package vad;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class AIPlayer implements Player {
-	public static final int CACHE_INITIAL_SIZE = 2000003;
-	public static final float CACHE_LOAD_FACTOR = 0.8f;
-	public static final int CACHE_NUM_SHARDS = 4;
+	public static final int DEFAULT_NUM_THREADS = 1;
 
 	public static final int MAX = Integer.MAX_VALUE;
 	public static final int MIN = -MAX;
@@ -18,45 +20,385 @@ public class AIPlayer implements Player {
 
 	public static final int REPEATED_MOVE_PENALTY = 10000;
 
-	private static final boolean UI_ENABLED = true;
+	/* Captures searched past the nominal depth, at most */
+	public static final int MAX_QUIESCENCE_DEPTH = 8;
+	/* Score of a position drawn by repetition */
+	static final int DRAW = 0;
+	/* Returned by the search when it ran out of time */
+	static final int ABORTED = Integer.MIN_VALUE;
+	/* Score of a tablebase win, less its plies to mate, above any evaluation */
+	static final int TABLEBASE_WIN = 1 << 20;
+	/* Deepest ply the search can reach, quiescence included */
+	public static final int MAX_PLY = 128;
+	/* Deepest iteration, its quiescence search must stay within MAX_PLY */
+	public static final int MAX_DEPTH = MAX_PLY - MAX_QUIESCENCE_DEPTH;
+	/* Scores at least this far from zero are tablebase wins or losses */
+	static final int TABLEBASE_BOUND = TABLEBASE_WIN - MAX_PLY - Tablebase.MAX_PLIES - 2;
+	/* History scores are halved when one of them grows past this */
+	static final int HISTORY_LIMIT = 1 << 20;
+
+	/*
+	 * Null move pruning: the reply to passing is searched this much shallower
+	 * (one more from NULL_MOVE_DEEP_DEPTH on), at nodes with at least
+	 * NULL_MOVE_MIN_DEPTH remaining depth whose side to move has at least
+	 * NULL_MOVE_MIN_PIECES pieces besides king and pawns
+	 */
+	public static final int NULL_MOVE_REDUCTION = 2;
+	public static final int NULL_MOVE_DEEP_DEPTH = 7;
+	public static final int NULL_MOVE_MIN_DEPTH = 3;
+	public static final int NULL_MOVE_MIN_PIECES = 1;
+	/* The move leading to a node after a pass */
+	static final int NULL_MOVE = -1;
 
-	public long SEARCH_LIMIT_NS = (long) (7 * 1e9); // nanoseconds
-	public static final int MOVE_MAX_REPETITIONS = 3;
+	/*
+	 * Late move reductions: quiet moves after the first LMR_FULL_MOVES of a
+	 * node with at least LMR_MIN_DEPTH remaining depth are searched
+	 * shallower, by LMR_BASE + ln(depth) * ln(move index) / LMR_DIVISOR plies
+	 */
+	public static final int LMR_MIN_DEPTH = 3;
+	public static final int LMR_FULL_MOVES = 3;
+	public static final double LMR_BASE = 0.75;
+	public static final double LMR_DIVISOR = 2.25;
+	/* Deepest remaining depth in the reduction table, deeper nodes use its last row */
+	static final int LMR_MAX_DEPTH = 64;
+
+	/* Search drivers run by each iteration of iterative deepening */
+	public static final int MTDF = 0;
+	public static final int PVS = 1;
+	/*
+	 * Principal variation search starts each iteration from depth
+	 * ASPIRATION_MIN_DEPTH on with a window of ASPIRATION_WINDOW (half a
+	 * pawn) on either side of the previous score, doubling it on every fail
+	 */
+	public static final int ASPIRATION_WINDOW = 32;
+	public static final int ASPIRATION_MIN_DEPTH = 3;
+
+	private static final boolean UI_ENABLED = true;
 
-	long searchStart;
+	/* Limits the search of each move, shared with the helpers */
+	TimeManager timeManager;
+	/* Nodes visited by this searcher in the current search, for the time manager */
+	long nodes;
 	private int playerColor;
 	int depth = 100;
-	Map<CompressedGameBoard, TranspositionTableEntry> cache = new HashMap<>(CACHE_INITIAL_SIZE, CACHE_LOAD_FACTOR);
-	Map<Move, Integer> visitedMoves = new HashMap<>(CACHE_INITIAL_SIZE, CACHE_LOAD_FACTOR);
+	TranspositionTable cache;
+	TranspositionTableEntry probed = new TranspositionTableEntry();
+	/* Number of moves played on the board before the root of the search */
+	int rootPly;
+	/* One reusable move picker per ply, so searching a node allocates nothing */
+	final MovePicker[] pickers = new MovePicker[MAX_PLY];
+	/* Moves generated to check the legality of a single move */
+	final MoveList scratch = new MoveList();
+	/* Best move found by the last completed search of the root */
+	int rootMove = PackedMove.NONE;
+	/* The last two quiet moves that caused a cutoff at each ply */
+	final int[][] killers = new int[MAX_PLY][2];
+	/* Depth weighted cutoff counts of quiet moves, by color, start and destination */
+	final int[][][] history = new int[2][64][64];
 
 	ChessGUI gui;
 
 	int benchMark;
+	int quiescenceNodes;
+	/* Cutoffs in AlphaBetaWithMemory, and how many came from the first move searched */
+	int cutoffs;
+	int firstMoveCutoffs;
+	/* Cutoffs by the hash move, where no moves were generated */
+	int hashCutoffs;
+	/* Null move searches, and how many of them cut off the node */
+	int nullMoves;
+	int nullMoveCutoffs;
+
+	boolean nullMovePruning = true;
+	boolean nullMoveVerification = true;
+	/* Ply of the node being verified after a null move cutoff, -1 if none */
+	int verifyPly = -1;
+
+	/* Late moves searched at reduced depth, and how many had to be searched again */
+	int reducedMoves;
+	int reSearches;
+
+	boolean lateMoveReductions = true;
+	int lmrMinDepth = LMR_MIN_DEPTH;
+	int lmrFullMoves = LMR_FULL_MOVES;
+	/* Plies to reduce by, by remaining depth and index of the move in its node */
+	int[][] reductions = reductionTable(LMR_BASE, LMR_DIVISOR);
+
+	/* Endgame tables probed instead of searching, null if none */
+	Tablebases tablebases;
+	/* Positions scored by the tablebases in the last search */
+	int tablebaseHits;
+
+	int searchDriver = MTDF;
+	/* Root searches repeated because the score fell outside the aspiration window */
+	int aspirationFails;
+	/* Read by other threads while the search runs, see AsyncEngine */
+	volatile int completedDepth;
+
+	/*
+	 * Lazy SMP: helper searchers run the same iterative search on their own
+	 * copy of the board and share the transposition table with this player
+	 */
+	int numThreads = DEFAULT_NUM_THREADS;
+	AIPlayer[] helpers = new AIPlayer[0];
+	ExecutorService helperPool;
+	final boolean helper;
+	volatile boolean stopped = false;
+
+	/*
+	 * Pondering: after each move, search the position after the predicted
+	 * reply on the opponent's time, in a background thread
+	 */
+	boolean ponder = false;
+	ExecutorService ponderPool;
+	Future<Move> ponderSearch;
+	/* Zobrist key of the position after the predicted reply */
+	long ponderKey;
+	public int ponderHits = 0;
+	public int ponderMisses = 0;
 
 	Random r = new Random();
 
 	public volatile boolean thinking = false;
 
+	/* Snapshot file of the transposition table, saved every SNAPSHOT_INTERVAL moves */
+	public static final int SNAPSHOT_INTERVAL = 10;
+	Path hashFile;
+	int movesPlayed = 0;
+	/* Saves the periodic snapshots, so writing it takes no time off the clock */
+	ExecutorService snapshotPool;
+	Future<?> snapshotSave;
+
+	/* Moves are taken from the book as long as it knows the position */
+	OpeningBook book;
+	public int bookMoves = 0;
+
 	public long totalTime = 0;
+	/* Nodes at depth 0 only, and all nodes searched by all threads */
 	public long totalNodes = 0;
-	public int increased = 0;
+	public long totalSearchedNodes = 0;
 
 	public int myRow = -1, enemyRow = -1;
 
-	Queue<Move> lastMoves = new LinkedList<>();
+	/* The last moves played by this player, oldest first, penalized when repeated */
+	public static final int LAST_MOVES = 4;
+	int[] lastMoves = new int[LAST_MOVES];
 
 	public AIPlayer(int playerColor, double thinkTimeSec) {
+		this(playerColor, thinkTimeSec, TranspositionTable.DEFAULT_SIZE_MB);
+	}
+
+	public AIPlayer(int playerColor, double thinkTimeSec, int hashSizeMB) {
+		this(playerColor, thinkTimeSec, hashSizeMB, UI_ENABLED);
+	}
+
+	public AIPlayer(int playerColor, double thinkTimeSec, int hashSizeMB, boolean showGUI) {
 		this.playerColor = playerColor;
-		this.SEARCH_LIMIT_NS = (long) (thinkTimeSec * 1e9);
+		this.timeManager = TimeManager.moveTime(thinkTimeSec);
+		this.cache = new TranspositionTable(hashSizeMB);
+		this.helper = false;
+		initPickers();
 
-		if (UI_ENABLED)
+		if (showGUI)
 			gui = new ChessGUI(null, playerColor);
 	}
 
-	@Override
-	public Move makeMove(GameBoard board) {
-		
-		thinking = true;
+	/*
+	 * Helper searcher sharing the transposition table of the main player
+	 */
+	private AIPlayer(AIPlayer main) {
+		this.playerColor = main.playerColor;
+		this.cache = main.cache;
+		this.lastMoves = main.lastMoves;
+		this.helper = true;
+		initPickers();
+	}
+
+	private void initPickers() {
+		for (int i = 0; i < MAX_PLY; i++)
+			pickers[i] = new MovePicker();
+	}
+
+	/**
+	 * Set the number of threads searching each move, including the calling
+	 * thread. Helper threads are started lazily on the next search.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * Replace the transposition table, for example by an
+	 * {@link OffHeapTranspositionTable}. Helper threads share it from the
+	 * next search on.
+	 */
+	public void setTranspositionTable(TranspositionTable table) {
+		this.cache = table;
+	}
+
+	public TranspositionTable getTranspositionTable() {
+		return cache;
+	}
+
+	/**
+	 * Keep the transposition table in a snapshot file across games and runs.
+	 * The snapshot is loaded now if it exists and fits the table, and saved
+	 * every SNAPSHOT_INTERVAL moves and on {@link #shutdown()}. The periodic
+	 * saves run in a background thread, they still write and checksum the
+	 * whole table while the search runs and compete with it for memory
+	 * bandwidth.
+	 */
+	public void setHashFile(Path file) {
+		this.hashFile = file;
+		try {
+			if (cache.load(file))
+				System.out.println("Loaded transposition table from " + file);
+		} catch (IOException e) {
+			System.out.println("Could not load transposition table from " + file + ": " + e);
+		}
+	}
+
+	/**
+	 * Play from an opening book while it has moves for the position, and
+	 * search once it runs out. Null turns the book off.
+	 */
+	public void setOpeningBook(OpeningBook book) {
+		this.book = book;
+	}
+
+	/**
+	 * Score positions of few pieces from endgame tables instead of
+	 * searching them, and play the moves of the tables once the game
+	 * reaches them. Null turns them off.
+	 */
+	public void setTablebases(Tablebases tablebases) {
+		this.tablebases = tablebases;
+	}
+
+	/*
+	 * Save the snapshot in the background, unless the last save is still
+	 * running
+	 */
+	private void saveHashFileInBackground() {
+		if (hashFile == null || (snapshotSave != null && !snapshotSave.isDone()))
+			return;
+		if (snapshotPool == null)
+			snapshotPool = Executors.newSingleThreadExecutor(runnable -> {
+				Thread t = new Thread(runnable, "AIPlayer snapshot");
+				t.setDaemon(true);
+				return t;
+			});
+		snapshotSave = snapshotPool.submit(this::saveHashFile);
+	}
+
+	private void saveHashFile() {
+		if (hashFile == null)
+			return;
+		try {
+			cache.save(hashFile);
+		} catch (IOException e) {
+			System.out.println("Could not save transposition table to " + hashFile + ": " + e);
+		}
+	}
+
+	/**
+	 * Replace the time per move given to the constructor, for example with
+	 * a game clock or a fixed depth.
+	 */
+	public void setTimeManager(TimeManager timeManager) {
+		this.timeManager = timeManager;
+	}
+
+	public TimeManager getTimeManager() {
+		return timeManager;
+	}
+
+	/**
+	 * Choose how each iteration searches the root, {@link #MTDF} (the
+	 * default) or {@link #PVS}. Both share the transposition table and move
+	 * ordering.
+	 */
+	public void setSearchDriver(int driver) {
+		if (driver != MTDF && driver != PVS)
+			throw new IllegalArgumentException("Unknown search driver " + driver);
+		this.searchDriver = driver;
+	}
+
+	/**
+	 * Keep searching on the opponent's time: after each move the search
+	 * continues on the reply the transposition table predicts. If the
+	 * opponent plays it the next move continues that search, otherwise it
+	 * is stopped and the table keeps what it found.
+	 */
+	public void setPonder(boolean enabled) {
+		this.ponder = enabled;
+		if (!enabled)
+			stopPondering();
+	}
+
+	public void setLateMoveReductions(boolean enabled) {
+		this.lateMoveReductions = enabled;
+	}
+
+	/**
+	 * Tune the late move reductions.
+	 * 
+	 * @param minDepth
+	 *            Least remaining depth of a node to reduce moves at
+	 * @param fullMoves
+	 *            Moves of a node searched at full depth before reducing
+	 * @param base
+	 *            Reduction in plies independent of depth and move index
+	 * @param divisor
+	 *            The larger, the less depth and move index add to the
+	 *            reduction
+	 */
+	public void setReductionParameters(int minDepth, int fullMoves, double base, double divisor) {
+		this.lmrMinDepth = minDepth;
+		this.lmrFullMoves = fullMoves;
+		this.reductions = reductionTable(base, divisor);
+	}
+
+	static int[][] reductionTable(double base, double divisor) {
+		int[][] table = new int[LMR_MAX_DEPTH + 1][MoveList.CAPACITY];
+		for (int d = 1; d <= LMR_MAX_DEPTH; d++) {
+			for (int i = 1; i < MoveList.CAPACITY; i++) {
+				int r = (int) (base + Math.log(d) * Math.log(i) / divisor);
+				/* Leave at least one ply below the reduced move */
+				table[d][i] = Math.max(0, Math.min(r, d - 2));
+			}
+		}
+		return table;
+	}
+
+	public void setNullMovePruning(boolean enabled) {
+		this.nullMovePruning = enabled;
+	}
+
+	/**
+	 * Confirm every null move cutoff with a search of the node itself at the
+	 * reduced depth, which catches most zugzwang positions the piece count
+	 * guard lets through.
+	 */
+	public void setNullMoveVerification(boolean enabled) {
+		this.nullMoveVerification = enabled;
+	}
+
+	/**
+	 * Deepest iteration completed by the last search of this player.
+	 */
+	public int getCompletedDepth() {
+		return completedDepth;
+	}
+
+	/*
+	 * Find out which row we started on, used by evaluateBoard
+	 */
+	void initRows(GameBoard board) {
 		if (myRow == -1 && board.getPiece(Position.get(0, 0)) != null) {
 			if (board.getPiece(Position.get(0, 0)).getColor() == playerColor) {
 				myRow = 0;
@@ -66,206 +408,804 @@ public class AIPlayer implements Player {
 				enemyRow = 0;
 			}
 		}
+	}
 
-		System.out.println(board);
-		System.out.println("Current enemy board value: " + evaluateBoard(board, null));
+	@Override
+	public Move makeMove(GameBoard board) {
 		
-		if (board.getNumAllPieces() <= 24 && increased == 0) {
-			SEARCH_LIMIT_NS *= 2;
-			increased++;
-		} else if (board.getNumAllPieces() <= 12 && increased == 1) {
-			SEARCH_LIMIT_NS *= 2;
-			increased++;
-		} else if (board.getNumAllPieces() <= 8 && increased == 2) {
-			SEARCH_LIMIT_NS *= 2;
-			increased++;
-		}
-
-		Move move = getBestMove(board, depth);
+		thinking = true;
+		initRows(board);
+
+		System.out.println(board);
+		System.out.println("Current enemy board value: " + evaluateBoard(board, PackedMove.NONE));
+
+		Move move = null;
+		if (ponderSearch != null && board.getZobristKey() == ponderKey) {
+			System.out.println("Ponder hit");
+			ponderHits++;
+			timeManager.ponderHit();
+			move = finishPondering();
+		} else if (ponderSearch != null) {
+			System.out.println("Ponder miss");
+			ponderMisses++;
+			stopPondering();
+		}
+		if (move == null && book != null) {
+			int bookMove = book.probe(board, r);
+			if (bookMove != PackedMove.NONE) {
+				System.out.println("Book move " + PackedMove.toAlgebraic(bookMove));
+				bookMoves++;
+				move = new Move(bookMove);
+			}
+		}
+		if (move == null && tablebases != null) {
+			int tablebaseMove = tablebases.bestMove(board);
+			if (tablebaseMove != PackedMove.NONE) {
+				System.out.println("Tablebase move " + PackedMove.toAlgebraic(tablebaseMove));
+				move = new Move(tablebaseMove);
+			}
+		}
+		if (move == null)
+			move = getBestMove(board, depth);
+
+		// keep last moves
+		System.arraycopy(lastMoves, 1, lastMoves, 0, LAST_MOVES - 1);
+		lastMoves[LAST_MOVES - 1] = move == null ? PackedMove.NONE : move.pack();
+
+		if (++movesPlayed % SNAPSHOT_INTERVAL == 0)
+			saveHashFileInBackground();
+		if (ponder && move != null)
+			startPondering(board, move);
 		thinking = false;
 		return move;
 	}
 
+	/*
+	 * Search the position after move and the reply stored for it in the
+	 * transposition table until the opponent moves. Nothing is searched if
+	 * the table has no legal reply.
+	 */
+	private void startPondering(GameBoard board, Move move) {
+		GameBoard copy = board.copy();
+		copy.apply(move);
+		if (!cache.probe(copy.getZobristKey(), probed))
+			return;
+		int reply = PackedMove.fromTo(copy, probed.getMove());
+		if (reply == PackedMove.NONE || !MoveHelper.isLegal(copy, reply, scratch))
+			return;
+		copy.apply(reply);
+		ponderKey = copy.getZobristKey();
+		System.out.println("Pondering on " + PackedMove.toAlgebraic(reply));
+
+		if (ponderPool == null)
+			ponderPool = Executors.newSingleThreadExecutor(runnable -> {
+				Thread t = new Thread(runnable, "AIPlayer ponder");
+				t.setDaemon(true);
+				return t;
+			});
+		/* Reset here, a miss may stop the search before the thread starts it */
+		resetSearch();
+		timeManager.startPondering(copy);
+		ponderSearch = ponderPool.submit(() -> pickMove(copy, search(copy, depth)));
+	}
+
+	/*
+	 * Wait for the ponder search to end, null if it failed
+	 */
+	private Move finishPondering() {
+		Future<Move> search = ponderSearch;
+		ponderSearch = null;
+		try {
+			return search.get();
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/*
+	 * Abort the ponder search, if any, and discard its move
+	 */
+	private void stopPondering() {
+		if (ponderSearch == null)
+			return;
+		stopped = true;
+		finishPondering();
+	}
+
 	public void update(GameBoard board) {
-		if (UI_ENABLED)
+		if (gui != null)
 			gui.updateBoard(board);
 	}
 
-	public ScoredMove AlphaBetaWithMemory(GameBoard board, int alpha, int beta, int d, Move m) {
-		if (System.nanoTime() - searchStart > SEARCH_LIMIT_NS)
-			return null;
-		CompressedGameBoard cb = new CompressedGameBoard(board);
-		if (cache.containsKey(cb)) {
-			TranspositionTableEntry entry = cache.get(cb);
-			if (entry.getLower() >= beta) {
-				return new ScoredMove(entry.getMove(), entry.getLower());
+	/*
+	 * Counts a node and asks the time manager every CHECK_INTERVAL nodes, or
+	 * at every node with a node limit
+	 */
+	boolean outOfTime() {
+		nodes++;
+		if (stopped)
+			return true;
+		if ((nodes & (TimeManager.CHECK_INTERVAL - 1)) != 0 && !timeManager.isNodeLimited())
+			return false;
+		if (timeManager.isHardLimitReached(nodes))
+			stopped = true;
+		return stopped;
+	}
+
+	/**
+	 * Alpha-beta search with a transposition table.
+	 * 
+	 * @param d
+	 *            Remaining depth
+	 * @param ply
+	 *            Distance from the root, selects the move list of this node
+	 * @param m
+	 *            The packed move that led to this position
+	 * @return the score of the position, ABORTED if the search ran out of
+	 *         time. A search of the root leaves its best move in rootMove.
+	 */
+	public int AlphaBetaWithMemory(GameBoard board, int alpha, int beta, int d, int ply, int m) {
+		if (outOfTime())
+			return ABORTED;
+		/* Scored before the table is probed, its scores don't depend on the path */
+		if (ply > 0 && board.isRepetition(rootPly))
+			return DRAW;
+		if (ply > 0 && tablebases != null && board.getNumAllPieces() <= Tablebase.MAX_PIECES) {
+			int value = tablebases.probe(board);
+			if (value != Tablebase.UNKNOWN) {
+				tablebaseHits++;
+				return tablebaseScore(board, value, ply);
 			}
-			if (entry.getUpper() <= alpha)
-				return new ScoredMove(entry.getMove(), entry.getUpper());
-			alpha = Math.max(alpha, entry.getLower());
-			beta = Math.min(beta, entry.getUpper());
+		}
+		long key = board.getZobristKey();
+		int hashMove = PackedMove.NONE;
+		if (cache.probe(key, probed)) {
+			TranspositionTableEntry entry = probed;
+			if (entry.getDepth() >= d) {
+				int lower = fromTableScore(entry.getLower(), ply);
+				int upper = fromTableScore(entry.getUpper(), ply);
+				/* The root only takes a cutoff if the stored move can be played */
+				boolean cutoff = ply > 0 || setRootMove(board, entry.getMove());
+				if (cutoff && lower >= beta)
+					return lower;
+				if (cutoff && upper <= alpha)
+					return upper;
+				alpha = Math.max(alpha, lower);
+				beta = Math.min(beta, upper);
+			}
+			if (d > 0)
+				hashMove = getHashMove(board, entry.getMove());
 		}
 
-		Move best = null;
+		int best = PackedMove.NONE;
 		int score = 0;
 		if (d == 0) {
-			score = evaluateBoard(board, m);
+			score = quiescence(board, alpha, beta, m, ply, 0);
+			if (score == ABORTED)
+				return ABORTED;
 			benchMark++;
 		} else if (board.currentColor == playerColor) {
 			// This is a max node
+			if (beta < MAX && canNullMove(board, d, ply, m)) {
+				int val = nullMoveSearch(board, beta - 1, beta, d, ply, m);
+				if (val == ABORTED)
+					return ABORTED;
+				if (val >= beta) {
+					nullMoveCutoffs++;
+					cache.store(key, toTableScore(val, ply), MAX, d, PackedMove.NONE);
+					return val;
+				}
+			}
 			score = MIN;
 			int a = alpha;
-			for (Move child : board.getAllPossibleMoves(board.currentColor)) {
-				if (score >= beta)
-					break;
-
-				if (visitedMoves.containsKey(child) && visitedMoves.get(child) >= MOVE_MAX_REPETITIONS) {
-					System.out.println("!!!SKIPPING REPEATED!!!");
-					continue;
-				} else if (visitedMoves.containsKey(child)) {
-					visitedMoves.put(child, visitedMoves.get(child) + 1);
-				} else {
-					visitedMoves.put(child, 1);
-				}
-
-				board.apply(child);
-				ScoredMove val = AlphaBetaWithMemory(board, a, beta, d - 1, child);
-				board.undo(child);
-				
-				if (visitedMoves.get(child) > 1) {
-					visitedMoves.put(child, visitedMoves.get(child) - 1);
+			int searched = 0;
+			boolean reduce = canReduce(board, d);
+			MovePicker picker = pickers[ply];
+			picker.init(board, hashMove, killers[ply], history[board.currentColor]);
+			for (int child = picker.next(); child != PackedMove.NONE; child = picker.next()) {
+				int r = reduce ? getReduction(child, searched, d, ply) : 0;
+				int val;
+				if (searched > 0 && beta - a > 1) {
+					/* Principal variation search: prove the move is no better first */
+					val = searchMove(board, child, a, a + 1, d, ply, r);
+					if (val != ABORTED && val > a && val < beta)
+						val = searchMove(board, child, a, beta, d, ply, 0);
 				} else {
-					visitedMoves.remove(child);
+					val = searchMove(board, child, a, beta, d, ply, r);
 				}
-				
-				if (val == null)
-					return null;
-				if (val.score > score) {
-					score = val.score;
+				if (val == ABORTED)
+					return ABORTED;
+				searched++;
+				if (val > score) {
+					score = val;
 					best = child;
 				}
+				if (score >= beta) {
+					onCutoff(child, searched == 1, hashMove, ply, d, board.currentColor);
+					break;
+				}
 				a = Math.max(a, score);
 			}
 		} else {
 			// This is a min node
+			if (alpha > MIN && canNullMove(board, d, ply, m)) {
+				int val = nullMoveSearch(board, alpha, alpha + 1, d, ply, m);
+				if (val == ABORTED)
+					return ABORTED;
+				if (val <= alpha) {
+					nullMoveCutoffs++;
+					cache.store(key, MIN, toTableScore(val, ply), d, PackedMove.NONE);
+					return val;
+				}
+			}
 			score = MAX;
 			int b = beta;
-			for (Move child : board.getAllPossibleMoves(board.currentColor)) {
-				if (score <= alpha)
-					break;
-
-				if (visitedMoves.containsKey(child) && visitedMoves.get(child) >= MOVE_MAX_REPETITIONS) {
-					System.out.println("!!!SKIPPING REPEATED!!!");
-					continue;
-				} else if (visitedMoves.containsKey(child)) {
-					visitedMoves.put(child, visitedMoves.get(child) + 1);
-				} else {
-					visitedMoves.put(child, 1);
-				}
-				
-				board.apply(child);
-				ScoredMove val = AlphaBetaWithMemory(board, alpha, b, d - 1, child);
-				board.undo(child);
-				
-				if (visitedMoves.get(child) > 1) {
-					visitedMoves.put(child, visitedMoves.get(child) - 1);
+			int searched = 0;
+			boolean reduce = canReduce(board, d);
+			MovePicker picker = pickers[ply];
+			picker.init(board, hashMove, killers[ply], history[board.currentColor]);
+			for (int child = picker.next(); child != PackedMove.NONE; child = picker.next()) {
+				int r = reduce ? getReduction(child, searched, d, ply) : 0;
+				int val;
+				if (searched > 0 && b - alpha > 1) {
+					val = searchMove(board, child, b - 1, b, d, ply, r);
+					if (val != ABORTED && val < b && val > alpha)
+						val = searchMove(board, child, alpha, b, d, ply, 0);
 				} else {
-					visitedMoves.remove(child);
+					val = searchMove(board, child, alpha, b, d, ply, r);
 				}
-				
-				if (val == null)
-					return null;
-				if (val.score < score) {
-					score = val.score;
+				if (val == ABORTED)
+					return ABORTED;
+				searched++;
+				if (val < score) {
+					score = val;
 					best = child;
 				}
+				if (score <= alpha) {
+					onCutoff(child, searched == 1, hashMove, ply, d, board.currentColor);
+					break;
+				}
 				b = Math.min(b, score);
 			}
 		}
 		
+		int stored = toTableScore(score, ply);
 		if (score <= alpha) {
-			cache.put(cb, new TranspositionTableEntry(MIN, score, best));
+			cache.store(key, MIN, stored, d, best);
 		}
 		if (score > alpha && score < beta) {
-			cache.put(cb, new TranspositionTableEntry(score, score, best));
+			cache.store(key, stored, stored, d, best);
 		}
 		if (score >= beta) {
-			cache.put(cb, new TranspositionTableEntry(score, MAX, best));
+			cache.store(key, stored, MAX, d, best);
 		}
 		
-		return new ScoredMove(best, score);
+		if (ply == 0)
+			rootMove = best;
+		return score;
+	}
+
+	/*
+	 * Score of a tablebase value for this player. Wins and losses are kept
+	 * apart from evaluations. The plies from the root count towards the
+	 * distance to mate, so the shortest path to a mate scores highest
+	 * wherever the tables are entered.
+	 */
+	private int tablebaseScore(GameBoard board, int value, int ply) {
+		int score = value > 0 ? TABLEBASE_WIN - ply - value
+				: value < 0 ? -(TABLEBASE_WIN - ply + value + 1) : DRAW;
+		return board.currentColor == playerColor ? score : -score;
 	}
 
+	/*
+	 * Tablebase scores count the plies from the root. The transposition
+	 * table keeps them counted from the node instead, so they stay right
+	 * when the position is reached at another ply or from another root.
+	 */
+	static int toTableScore(int score, int ply) {
+		if (score == MIN || score == MAX)
+			return score;
+		return score >= TABLEBASE_BOUND ? score + ply : score <= -TABLEBASE_BOUND ? score - ply : score;
+	}
+
+	static int fromTableScore(int score, int ply) {
+		if (score == MIN || score == MAX)
+			return score;
+		return score >= TABLEBASE_BOUND ? score - ply : score <= -TABLEBASE_BOUND ? score + ply : score;
+	}
+
+	/*
+	 * Play a move of the node at ply and search the position after it. A
+	 * move searched with a reduction that turns out better than the bound of
+	 * the node (alpha at max nodes, beta at min nodes) is searched again to
+	 * the full depth. Moves that give check are never reduced.
+	 */
+	private int searchMove(GameBoard board, int move, int alpha, int beta, int d, int ply, int reduction) {
+		boolean max = board.currentColor == playerColor;
+		board.apply(move);
+		if (reduction > 0 && board.isCheck(board.currentColor))
+			reduction = 0;
+		int val = AlphaBetaWithMemory(board, alpha, beta, d - 1 - reduction, ply + 1, move);
+		if (reduction > 0 && val != ABORTED) {
+			reducedMoves++;
+			if (max ? val > alpha : val < beta) {
+				reSearches++;
+				val = AlphaBetaWithMemory(board, alpha, beta, d - 1, ply + 1, move);
+			}
+		}
+		board.undo(move);
+		return val;
+	}
+
+	/*
+	 * Late moves are reduced deep enough in the tree and not in check
+	 */
+	private boolean canReduce(GameBoard board, int d) {
+		return lateMoveReductions && d >= lmrMinDepth && !board.isCheck(board.currentColor);
+	}
+
+	/*
+	 * Plies to reduce a move by, given how many moves of the node were
+	 * searched before it. Captures, promotions and killer moves are searched
+	 * to the full depth.
+	 */
+	private int getReduction(int move, int searched, int d, int ply) {
+		if (searched < lmrFullMoves || PackedMove.isCapture(move) || PackedMove.isPromotion(move)
+				|| move == killers[ply][0] || move == killers[ply][1])
+			return 0;
+		return reductions[Math.min(d, LMR_MAX_DEPTH)][Math.min(searched, MoveList.CAPACITY - 1)];
+	}
+
+	/*
+	 * Passing can be tried below the root, not twice in a row, not in check
+	 * and not where zugzwang is likely: with only king and pawns every move
+	 * may make the position worse, so passing would look better than moving.
+	 */
+	private boolean canNullMove(GameBoard board, int d, int ply, int m) {
+		if (!nullMovePruning || ply == 0 || ply == verifyPly || m == NULL_MOVE || d < NULL_MOVE_MIN_DEPTH)
+			return false;
+		int color = board.currentColor;
+		int pieces = board.getNumPieces(color) - board.getNumPieces(color, Piece.PAWN)
+				- board.getNumPieces(color, Piece.KING);
+		return pieces >= NULL_MOVE_MIN_PIECES && !board.isCheck(color);
+	}
+
+	/*
+	 * Pass the turn and search the reply with a reduced depth in the null
+	 * window alpha, beta. If passing is still good enough to cut off, some
+	 * real move almost surely is too. With verification on, a cutoff is
+	 * confirmed by searching the node itself to the reduced depth, without
+	 * passing at this ply.
+	 */
+	private int nullMoveSearch(GameBoard board, int alpha, int beta, int d, int ply, int m) {
+		int r = d >= NULL_MOVE_DEEP_DEPTH ? NULL_MOVE_REDUCTION + 1 : NULL_MOVE_REDUCTION;
+		nullMoves++;
+		board.applyNullMove();
+		int val = AlphaBetaWithMemory(board, alpha, beta, Math.max(0, d - 1 - r), ply + 1, NULL_MOVE);
+		board.undoNullMove();
+		boolean cutoff = board.currentColor == playerColor ? val >= beta : val <= alpha;
+		if (val == ABORTED || !cutoff || !nullMoveVerification)
+			return val;
+
+		int verifying = verifyPly;
+		verifyPly = ply;
+		val = AlphaBetaWithMemory(board, alpha, beta, d - r, ply, m);
+		verifyPly = verifying;
+		return val;
+	}
+
+	/*
+	 * Rebuild the move stored in the transposition table for a node. NONE
+	 * unless it is legal, a key collision can leave a move of another
+	 * position.
+	 */
+	private int getHashMove(GameBoard board, int fromTo) {
+		int move = PackedMove.fromTo(board, fromTo);
+		if (move == PackedMove.NONE || !MoveHelper.isLegal(board, move, scratch))
+			return PackedMove.NONE;
+		return move;
+	}
+
+	/*
+	 * A move refuted the node: remember it as a killer of the ply and raise
+	 * its history score. Captures and promotions are ordered first anyway.
+	 */
+	private void onCutoff(int move, boolean first, int hashMove, int ply, int d, int color) {
+		cutoffs++;
+		if (first)
+			firstMoveCutoffs++;
+		if (move == hashMove)
+			hashCutoffs++;
+		if (PackedMove.isCapture(move) || PackedMove.isPromotion(move))
+			return;
+		int[] killer = killers[ply];
+		if (killer[0] != move) {
+			killer[1] = killer[0];
+			killer[0] = move;
+		}
+		int[] counts = history[color][PackedMove.getFrom(move)];
+		counts[PackedMove.getTo(move)] += d * d;
+		if (counts[PackedMove.getTo(move)] > HISTORY_LIMIT)
+			ageHistory();
+	}
+
+	private void ageHistory() {
+		for (int[][] colorHistory : history)
+			for (int[] counts : colorHistory)
+				for (int to = 0; to < counts.length; to++)
+					counts[to] /= 2;
+	}
+
+	/*
+	 * Reset the search statistics and move ordering before a new search.
+	 * Killers refer to plies of the previous search, history is only aged.
+	 */
+	private void resetSearch() {
+		benchMark = 0;
+		quiescenceNodes = 0;
+		cutoffs = 0;
+		firstMoveCutoffs = 0;
+		hashCutoffs = 0;
+		nullMoves = 0;
+		nullMoveCutoffs = 0;
+		reducedMoves = 0;
+		reSearches = 0;
+		aspirationFails = 0;
+		completedDepth = 0;
+		tablebaseHits = 0;
+		nodes = 0;
+		stopped = false;
+		for (int[] killer : killers)
+			Arrays.fill(killer, PackedMove.NONE);
+		ageHistory();
+	}
+
+	/**
+	 * Per cent of the cutoffs in the last search that came from the first
+	 * move searched. Higher is better ordering.
+	 */
+	public double getFirstMoveCutoffRate() {
+		return cutoffs == 0 ? 0.0 : 100.0 * firstMoveCutoffs / cutoffs;
+	}
+
+	/*
+	 * Rebuild the move stored for the root and make it rootMove if it is
+	 * legal. A key collision can leave a move of another position.
+	 */
+	private boolean setRootMove(GameBoard board, int fromTo) {
+		int move = PackedMove.fromTo(board, fromTo);
+		if (move == PackedMove.NONE || !MoveHelper.isLegal(board, move, scratch))
+			return false;
+		rootMove = move;
+		return true;
+	}
+
+	/*
+	 * Search captures and promotions only until the position is quiet, so
+	 * leaves are not evaluated in the middle of an exchange. The side to move
+	 * may always stand pat on the static evaluation instead of capturing.
+	 */
+	int quiescence(GameBoard board, int alpha, int beta, int m, int ply, int qd) {
+		if (outOfTime())
+			return ABORTED;
+		quiescenceNodes++;
+		int standPat = evaluateBoard(board, m);
+		if (qd >= MAX_QUIESCENCE_DEPTH)
+			return standPat;
+
+		int score = standPat;
+		MovePicker picker = pickers[ply];
+		if (board.currentColor == playerColor) {
+			// This is a max node
+			if (score >= beta)
+				return score;
+			int a = Math.max(alpha, score);
+			picker.initCaptures(board);
+			for (int child = picker.next(); child != PackedMove.NONE; child = picker.next()) {
+				board.apply(child);
+				int val = quiescence(board, a, beta, child, ply + 1, qd + 1);
+				board.undo(child);
+				if (val == ABORTED)
+					return ABORTED;
+				if (val > score) {
+					score = val;
+					if (score >= beta)
+						break;
+					a = Math.max(a, score);
+				}
+			}
+		} else {
+			// This is a min node
+			if (score <= alpha)
+				return score;
+			int b = Math.min(beta, score);
+			picker.initCaptures(board);
+			for (int child = picker.next(); child != PackedMove.NONE; child = picker.next()) {
+				board.apply(child);
+				int val = quiescence(board, alpha, b, child, ply + 1, qd + 1);
+				board.undo(child);
+				if (val == ABORTED)
+					return ABORTED;
+				if (val < score) {
+					score = val;
+					if (score <= alpha)
+						break;
+					b = Math.min(b, score);
+				}
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * One MTD(f) search to depth d, a series of null window searches
+	 * converging on the score.
+	 * 
+	 * @return the best move and its score, null if the search ran out of time
+	 */
 	public ScoredMove getBestMoveMTDF(GameBoard board, int startScore, int d) {
 		int lb = MIN;
 		int ub = MAX;
-		ScoredMove g = new ScoredMove(null, startScore);
+		int g = startScore;
 		do {
-			if (System.nanoTime() - searchStart > SEARCH_LIMIT_NS)
-				break;
-			int beta = g.score == lb ? g.score + 1 : g.score;
-			g = AlphaBetaWithMemory(board, beta - 1, beta, d, null);
-			if (g == null)
-				break;
-			if (g.score < beta) {
-				ub = g.score;
+			if (outOfTime())
+				return null;
+			int beta = g == lb ? g + 1 : g;
+			g = AlphaBetaWithMemory(board, beta - 1, beta, d, 0, PackedMove.NONE);
+			if (g == ABORTED)
+				return null;
+			if (g < beta) {
+				ub = g;
 			} else {
-				lb = g.score;
+				lb = g;
 			}
 		} while (lb < ub);
-		return g;
+		return new ScoredMove(rootMove == PackedMove.NONE ? null : new Move(rootMove), g);
+	}
+
+	/**
+	 * One principal variation search to depth d with an aspiration window
+	 * around the score of the previous iteration. A score outside the window
+	 * is searched again with the window widened on that side.
+	 * 
+	 * @return the best move and its score, null if the search ran out of time
+	 */
+	public ScoredMove getBestMovePVS(GameBoard board, int startScore, int d) {
+		int delta = ASPIRATION_WINDOW;
+		int alpha = MIN;
+		int beta = MAX;
+		if (d >= ASPIRATION_MIN_DEPTH) {
+			alpha = widen(startScore, -delta);
+			beta = widen(startScore, delta);
+		}
+		while (true) {
+			if (outOfTime())
+				return null;
+			int g = AlphaBetaWithMemory(board, alpha, beta, d, 0, PackedMove.NONE);
+			if (g == ABORTED)
+				return null;
+			if (g <= alpha && alpha > MIN) {
+				alpha = widen(g, -delta);
+			} else if (g >= beta && beta < MAX) {
+				beta = widen(g, delta);
+			} else {
+				return new ScoredMove(rootMove == PackedMove.NONE ? null : new Move(rootMove), g);
+			}
+			aspirationFails++;
+			delta *= 2;
+		}
 	}
 
+	/*
+	 * score + delta, saturated to the range of scores
+	 */
+	private static int widen(int score, int delta) {
+		return (int) Math.max(MIN, Math.min(MAX, (long) score + delta));
+	}
+
+	/**
+	 * Iterative deepening with the selected search driver, see
+	 * {@link #setSearchDriver(int)}.
+	 */
 	public ScoredMove getBestMoveIterativeMTDF(GameBoard board, int max_depth) {
-		searchStart = System.nanoTime();
+		timeManager.startSearch(board);
+		return getBestMoveIterativeMTDF(board, 1, max_depth);
+	}
+
+	/*
+	 * Iterative deepening from startDepth to at most MAX_DEPTH, the time
+	 * manager must already be started. Only the main searcher decides whether
+	 * to start another iteration, helpers run until they are stopped.
+	 */
+	ScoredMove getBestMoveIterativeMTDF(GameBoard board, int startDepth, int max_depth) {
+		max_depth = Math.min(max_depth, MAX_DEPTH);
 		ScoredMove firstGuess = new ScoredMove(null, 0);
-		int d = 1;
-		for (d = 1; d <= max_depth; d++) {
-			if (System.nanoTime() - searchStart > SEARCH_LIMIT_NS) {
+		completedDepth = 0;
+		rootPly = board.getPlies();
+		for (int d = startDepth; d <= max_depth; d++) {
+			if (outOfTime()) {
 				break;
 			}
-			ScoredMove temp = getBestMoveMTDF(board, firstGuess.score, d);
+			ScoredMove temp = searchDriver == PVS ? getBestMovePVS(board, firstGuess.score, d)
+					: getBestMoveMTDF(board, firstGuess.score, d);
 			if (temp == null) {
-				System.out.println("Ran out of time! Aborting");
-				d--;
+				if (!helper)
+					System.out.println("Ran out of time! Aborting");
 				break;
-			} else
+			} else {
 				firstGuess = temp;
+				completedDepth = d;
+				if (!helper && !timeManager.canStartIteration(rootMove))
+					break;
+			}
 			// System.out.println("Searched to depth " + d + " and found move
 			// score " + firstGuess.score);
+		}
+		if (!helper)
+			System.out.println("Finished search to depth " + completedDepth + " with score " + firstGuess.score);
+		return firstGuess;
+	}
+
+	/*
+	 * Start numThreads - 1 helpers on copies of the board. Odd helpers start
+	 * one ply deeper so the threads don't all search the same depth at once.
+	 */
+	private Future<?>[] startHelpers(GameBoard board, int max_depth) {
+		if (helpers.length != numThreads - 1) {
+			stopHelperPool();
+			helpers = new AIPlayer[numThreads - 1];
+			for (int i = 0; i < helpers.length; i++)
+				helpers[i] = new AIPlayer(this);
+			if (helpers.length > 0)
+				helperPool = Executors.newFixedThreadPool(helpers.length, runnable -> {
+					Thread t = new Thread(runnable, "AIPlayer helper");
+					t.setDaemon(true);
+					return t;
+				});
+		}
+		Future<?>[] futures = new Future<?>[helpers.length];
+		for (int i = 0; i < helpers.length; i++) {
+			AIPlayer h = helpers[i];
+			GameBoard copy = board.copy();
+			int startDepth = 1 + (i % 2);
+			h.myRow = myRow;
+			h.nullMovePruning = nullMovePruning;
+			h.nullMoveVerification = nullMoveVerification;
+			h.lateMoveReductions = lateMoveReductions;
+			h.lmrMinDepth = lmrMinDepth;
+			h.lmrFullMoves = lmrFullMoves;
+			h.reductions = reductions;
+			h.searchDriver = searchDriver;
+			h.enemyRow = enemyRow;
+			h.timeManager = timeManager;
+			h.cache = cache;
+			h.tablebases = tablebases;
+			h.resetSearch();
+			futures[i] = helperPool.submit(() -> h.getBestMoveIterativeMTDF(copy, startDepth, max_depth));
+		}
+		return futures;
+	}
 
-			// clear cache if we only have 256 MB left
-			// this should be ok because most of the stuff in the cache will be old nodes
-			// that we won't look at again, i assume this program is run with ~8GB ram
-			if (Runtime.getRuntime().freeMemory() < 256 * 1000000) {
-				System.out.println("Clearing cache!");
-				cache.clear();
-				System.gc();
+	private void stopHelpers(Future<?>[] futures) {
+		for (AIPlayer h : helpers)
+			h.stopped = true;
+		for (int i = 0; i < futures.length; i++) {
+			try {
+				futures[i].get();
+			} catch (InterruptedException | ExecutionException e) {
+				e.printStackTrace();
 			}
+			benchMark += helpers[i].benchMark;
+			nodes += helpers[i].nodes;
+			quiescenceNodes += helpers[i].quiescenceNodes;
+			cutoffs += helpers[i].cutoffs;
+			firstMoveCutoffs += helpers[i].firstMoveCutoffs;
+			hashCutoffs += helpers[i].hashCutoffs;
+			nullMoves += helpers[i].nullMoves;
+			nullMoveCutoffs += helpers[i].nullMoveCutoffs;
+			reducedMoves += helpers[i].reducedMoves;
+			reSearches += helpers[i].reSearches;
+			aspirationFails += helpers[i].aspirationFails;
 		}
-		System.out.println("Finished search to depth " + (d - 1) + " with score " + firstGuess.score);
-		return firstGuess;
+	}
+
+	private void stopHelperPool() {
+		if (helperPool != null) {
+			helperPool.shutdownNow();
+			helperPool = null;
+		}
+	}
+
+	/**
+	 * Stop the helper threads and save the hash file, if any. The threads
+	 * are started again by the next search.
+	 */
+	public void shutdown() {
+		stopPondering();
+		if (ponderPool != null) {
+			ponderPool.shutdownNow();
+			ponderPool = null;
+		}
+		stopHelperPool();
+		helpers = new AIPlayer[0];
+		if (snapshotPool != null) {
+			/* Let a periodic save finish before the final one replaces the file */
+			snapshotPool.shutdown();
+			try {
+				snapshotPool.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			snapshotPool = null;
+		}
+		saveHashFile();
 	}
 
 	public Move getBestMove(GameBoard board, int d) {
+		prepareSearch(board);
+		return pickMove(board, search(board, d));
+	}
+
+	/**
+	 * Stop the running search from another thread. It returns the result of
+	 * the last completed iteration within a few nodes.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/*
+	 * Reset the search state and start the time manager. Done before the
+	 * search runs, so a stop() from then on is not lost.
+	 */
+	void prepareSearch(GameBoard board) {
+		resetSearch();
+		timeManager.startSearch(board);
+	}
+
+	/*
+	 * Search to at most depth d after prepareSearch, the move of the result
+	 * is null if not even the first iteration completed
+	 */
+	ScoredMove search(GameBoard board, int d) {
 		System.out.println("AI Thinking..........");
-		benchMark = 0;
 		long start = System.nanoTime();
+		cache.newSearch();
 
-		ScoredMove best = getBestMoveIterativeMTDF(board, d);
-
-		// keep last 3 moves
-		if (lastMoves.size() > 3)
-			lastMoves.remove();
-		lastMoves.add(best.move);
+		d = Math.min(d, timeManager.getMaxDepth());
+		Future<?>[] helperSearches = startHelpers(board, d);
+		ScoredMove best = getBestMoveIterativeMTDF(board, 1, d);
+		stopHelpers(helperSearches);
+		timeManager.endSearch();
 
 		totalNodes += benchMark;
+		totalSearchedNodes += nodes;
 		totalTime += (System.nanoTime() - start);
 		double time = (System.nanoTime() - start) / 1.0e9;
-		double tpn = benchMark / time;
-		System.out.format(benchMark + " nodes searched in " + time + ". Nodes per second: %.3f\n", tpn);
-		System.out.format("AI Total Nodes: %d Nodes cached: %d Sec: %.3f pieces: %d\n", 
-						  totalNodes, cache.size(), (totalTime / 1e9), board.getNumAllPieces());
+		double tpn = nodes / time;
+		System.out.format(nodes + " nodes searched (" + benchMark + " at depth 0) in " + time
+				+ ". Nodes per second: %.3f\n", tpn);
+		System.out.format("Quiescence nodes: %d (%.3f per leaf)\n", quiescenceNodes,
+				benchMark == 0 ? 0.0 : quiescenceNodes / (double) benchMark);
+		System.out.format("Cutoffs: %d (%.1f%% on the first move, %d by the hash move without move generation)\n",
+				cutoffs, getFirstMoveCutoffRate(), hashCutoffs);
+		System.out.format("Null moves: %d, %d cut off\n", nullMoves, nullMoveCutoffs);
+		System.out.format("Reduced moves: %d, %d searched again\n", reducedMoves, reSearches);
+		if (searchDriver == PVS)
+			System.out.format("Aspiration window fails: %d\n", aspirationFails);
+		if (tablebases != null)
+			System.out.format("Tablebase hits: %d\n", tablebaseHits);
+		System.out.format("AI Total Nodes: %d Cache used: %d/1000 of %d MB Sec: %.3f pieces: %d\n", 
+						  totalNodes, cache.getUsagePermille(), cache.getSizeMB(), (totalTime / 1e9), board.getNumAllPieces());
+		return best;
+	}
+
+	/*
+	 * The move of a search result, a random legal move if the search found
+	 * none in time and null if there is none
+	 */
+	private Move pickMove(GameBoard board, ScoredMove best) {
 		if (best.move == null) {
 			System.out.println("No good move found! Picking random move.");
 			if (board.getAllPossibleMoves(playerColor).size() == 0) {
@@ -298,148 +1238,148 @@ public class AIPlayer implements Player {
 
 	/*
 	 * always evaluate from the perspective of the current player
+	 * 
+	 * Every term is a weighted difference between the two colors, so each
+	 * color is scored on its own from the bitboards and the results are
+	 * subtracted. Nothing is allocated.
 	 */
-	public int evaluateBoard(GameBoard board, Move lastMove) {
+	public int evaluateBoard(GameBoard board, int lastMove) {
 		int pColor = playerColor; // board.currentColor; // pColor is row 6-7
 		int eColor = Piece.getOppositeColor(pColor); // eColor is row 0-1
 
-		// System.out.println((pColor == Piece.BLACK ? "Black" : "White"));
-
-		int score = 0, aggressive = 0, defensive = 0;
-
-		short[][] countPieces = new short[Piece.COLORS.length][Piece.NAMES.length];
-		short[] castled = new short[Piece.COLORS.length];
-		short[] pawnMobility = new short[Piece.COLORS.length];
-		short[] pieceMobility = new short[Piece.COLORS.length];
-		boolean[][] pawnColumnOccupied = new boolean[Piece.COLORS.length][GameBoard.WIDTH];
-		short[] pawnColumnPenalty = new short[Piece.COLORS.length];
-		short[] knighNotIsolated = new short[Piece.COLORS.length];
-		short[] pawnAdvancedCentered = new short[Piece.COLORS.length];
-		short[] squaresControlled = new short[Piece.COLORS.length];
-		short[] piecesNotOnFirstRow = new short[Piece.COLORS.length];
-		short[] kingHome = new short[Piece.COLORS.length];
-		short[] piecesSurroundingKing = new short[Piece.COLORS.length];
-		short[] rookOpenCol = new short[Piece.COLORS.length];
-		boolean[] check = new boolean[Piece.COLORS.length];
-		boolean[] checkMate = new boolean[Piece.COLORS.length];
-
-		for (short col = 0; col < GameBoard.WIDTH; col++) {
-			for (short row = 0; row < GameBoard.HEIGHT; row++) {
-				Piece piece = board.getPiece(Position.get(col, row));
-				if (piece != null) {
-					int playerStartRow = (piece.getColor() == pColor) ? myRow : enemyRow;
-					countPieces[piece.getColor()][piece.getType()]++;
-
-					squaresControlled[piece.getColor()] += MoveHelper.getReachablePosition(board, col, row, true)
-							.size();
-
-					if (piece.getType() == Piece.KING) {
-						castled[piece.getColor()] = (short) (board.hasCastled(piece.getColor()) ? 1 : 0);
-						kingHome[piece.getColor()] += (row == playerStartRow) ? 1 : 0;
-						piecesSurroundingKing[piece.getColor()] += countKingSurrounding(board, Position.get(col, row));
-					} else if (piece.getType() == Piece.PAWN) {
-						short rowValue = (short) (Math.abs(playerStartRow - row) - 1);
-						short colValue = (short) Math.round(3.5 - Math.abs(3.5 - col));
-
-						// linear mobility bonus per distance out
-						pawnMobility[piece.getColor()] += rowValue;
-						if (rowValue != 0) {
-							// reward advanced pawns near center
-							pawnAdvancedCentered[piece.getColor()] += colValue;
-						}
-
-						// bonus for getting off start position
-						if (rowValue != 0)
-							pawnMobility[piece.getColor()] += 1;
-
-						// multiple pawns in the same column
-						if (pawnColumnOccupied[piece.getColor()][col])
-							pawnColumnPenalty[piece.getColor()]++;
-						pawnColumnOccupied[piece.getColor()][col] = true;
-					} else {
-						short rowValue = (short) Math.abs(playerStartRow - row);
-
-						// linear mobility bonus per distance out
-						pieceMobility[piece.getColor()] += rowValue;
-
-						if (piece.getType() == Piece.KNIGHT) {
-							if (col != 0 && col != 7)
-								knighNotIsolated[piece.getColor()]++;
-						} else if (piece.getType() == Piece.ROOK) {
-							if (playerStartRow == 0) {
-								boolean foundPiece = false;
-								for (int c = col; c <= 7; c++) {
-									if (board.getPiece(Position.get(c, row)) != null) {
-										if (board.getPiece(Position.get(c, row)).getColor() == piece.getColor()) {
-											foundPiece = true;
-											break;
-										}
-									}
-								}
-								rookOpenCol[piece.getColor()] += foundPiece ? 0 : 1;
-							} else if (playerStartRow == 7) {
-								boolean foundPiece = false;
-								for (int c = col; c >= 0; c--) {
-									if (board.getPiece(Position.get(c, row)) != null) {
-										if (board.getPiece(Position.get(c, row)).getColor() == piece.getColor()) {
-											foundPiece = true;
-											break;
-										}
-									}
-								}
-								rookOpenCol[piece.getColor()] += foundPiece ? 0 : 1;
-							}
-						}
-
-						if (row != playerStartRow && piece.getType() != Piece.ROOK)
-							piecesNotOnFirstRow[piece.getColor()]++;
-					}
-				}
+		int score = evaluateColor(board, pColor, myRow) - evaluateColor(board, eColor, enemyRow);
+
+		for (int move : lastMoves) {
+			if (lastMove != PackedMove.NONE && lastMove == move) {
+				score -= 64;
 			}
 		}
-		
-		for (int i: Piece.COLORS) {
-			check[i] = board.isCheck(i);
-			checkMate[i] = squaresControlled[i] == 0 && check[i];
+
+		return score;
+	}
+
+	/*
+	 * Material (scaled by 64) plus aggressive and defensive terms of one color
+	 */
+	private static int evaluateColor(GameBoard board, int color, int startRow) {
+		int enemy = Piece.getOppositeColor(color);
+		long own = board.getPieces(color);
+		long occupied = board.getOccupied();
+
+		int material = 0, aggressive = 0, defensive = 0;
+
+		material += 1 * board.getNumPieces(color, Piece.PAWN);
+		material += 3 * board.getNumPieces(color, Piece.BISHOP);
+		material += 3 * board.getNumPieces(color, Piece.KNIGHT);
+		material += 5 * board.getNumPieces(color, Piece.ROOK);
+		material += 9 * board.getNumPieces(color, Piece.QUEEN);
+		material += 100 * board.getNumPieces(color, Piece.KING);
+
+		int squaresControlled = 0;
+		int pieceMobility = 0, piecesNotOnFirstRow = 0, knightNotIsolated = 0, rookOpenCol = 0;
+		for (int type = Piece.QUEEN; type <= Piece.BISHOP; type++) {
+			for (long bb = board.getPieces(color, type); bb != 0; bb &= bb - 1) {
+				int sq = Long.numberOfTrailingZeros(bb);
+				int col = sq & 7, row = sq >>> 3;
+				squaresControlled += Long.bitCount(Bitboard.attacks(type, color, sq, occupied));
+
+				// linear mobility bonus per distance out
+				pieceMobility += Math.abs(startRow - row);
+
+				if (type == Piece.KNIGHT) {
+					if (col != 0 && col != 7)
+						knightNotIsolated++;
+				} else if (type == Piece.ROOK) {
+					// own piece between the rook (inclusive) and the far side of its row
+					long rest = 0;
+					if (startRow == 0)
+						rest = (Bitboard.ROW_0 << (row * 8)) & (Bitboard.FULL << sq);
+					else if (startRow == 7)
+						rest = (Bitboard.ROW_0 << (row * 8)) & (Bitboard.FULL >>> (63 - sq));
+					if (startRow == 0 || startRow == 7)
+						rookOpenCol += (rest & own) != 0 ? 0 : 1;
+				}
+
+				if (row != startRow && type != Piece.ROOK)
+					piecesNotOnFirstRow++;
+			}
 		}
-		
-		// spaces protected/attacked by pawns
-		// play with pawn heuristic weights
-
-		score += 1 * (countPieces[pColor][Piece.PAWN] - countPieces[eColor][Piece.PAWN]);
-		score += 3 * (countPieces[pColor][Piece.BISHOP] - countPieces[eColor][Piece.BISHOP]);
-		score += 3 * (countPieces[pColor][Piece.KNIGHT] - countPieces[eColor][Piece.KNIGHT]);
-		score += 5 * (countPieces[pColor][Piece.ROOK] - countPieces[eColor][Piece.ROOK]);
-		score += 9 * (countPieces[pColor][Piece.QUEEN] - countPieces[eColor][Piece.QUEEN]);
-		score += 100 * (countPieces[pColor][Piece.KING] - countPieces[eColor][Piece.KING]);
-		score += 100 * ((checkMate[eColor] ? 1 : 0) - (checkMate[pColor] ? 1 : 0));
-		score *= 64;
-
-		aggressive += 16 * ((check[eColor] ? 1 : 0) - (check[pColor] ? 1 : 0));
-		aggressive += 2 * (pawnMobility[pColor] - pawnMobility[eColor]);
-		aggressive += 1 * (pawnAdvancedCentered[pColor] - pawnAdvancedCentered[eColor]);
-		aggressive += 1 * (pieceMobility[pColor] - pieceMobility[eColor]);
-		aggressive += 32 * (piecesNotOnFirstRow[pColor] - piecesNotOnFirstRow[eColor]);
-		aggressive += 16 * (pawnColumnPenalty[pColor] - pawnColumnPenalty[eColor]);
-		aggressive += 32 * (knighNotIsolated[pColor] - knighNotIsolated[eColor]);
-		aggressive += 2 * (squaresControlled[pColor] - squaresControlled[eColor]);
-		aggressive += 32 * (rookOpenCol[pColor] - rookOpenCol[eColor]);
-		// aggressive *= aggrMult;
-
-		defensive += 64 * (kingHome[pColor] - kingHome[eColor]);
-		defensive += 8 * (piecesSurroundingKing[pColor] - piecesSurroundingKing[eColor]);
-		defensive += 64 * (castled[pColor] - castled[eColor]);
-		// defensive *= 4 - aggrMult;
-
-		for (Move move : lastMoves) {
-			if (lastMove != null && lastMove.equals(move)) {
-				defensive -= 64;
+
+		int pawnMobility = 0, pawnAdvancedCentered = 0, pawnFiles = 0;
+		long pawns = board.getPieces(color, Piece.PAWN);
+		for (long bb = pawns; bb != 0; bb &= bb - 1) {
+			int sq = Long.numberOfTrailingZeros(bb);
+			int col = sq & 7, row = sq >>> 3;
+			squaresControlled += countPawnReach(color, sq, occupied);
+
+			int rowValue = Math.abs(startRow - row) - 1;
+			// linear mobility bonus per distance out
+			pawnMobility += rowValue;
+			if (rowValue != 0) {
+				// reward advanced pawns near center
+				pawnAdvancedCentered += Math.min(col, 7 - col);
+				// bonus for getting off start position
+				pawnMobility += 1;
 			}
 		}
+		for (int col = 0; col < GameBoard.WIDTH; col++) {
+			if ((pawns & (Bitboard.COL_A << col)) != 0)
+				pawnFiles++;
+		}
+		// multiple pawns in the same column
+		int pawnColumnPenalty = Long.bitCount(pawns) - pawnFiles;
 
-		score += aggressive + defensive;
+		boolean check = false;
+		int castled = 0, kingHome = 0, piecesSurroundingKing = 0;
+		for (long bb = board.getPieces(color, Piece.KING); bb != 0; bb &= bb - 1) {
+			int sq = Long.numberOfTrailingZeros(bb);
+			int col = sq & 7, row = sq >>> 3;
+			squaresControlled += Long.bitCount(Bitboard.KING_ATTACKS[sq]);
+			squaresControlled += MoveHelper.canCastleLeft(board, color, col, row) ? 1 : 0;
+			squaresControlled += MoveHelper.canCastleRight(board, color, col, row) ? 1 : 0;
 
-		return score;
+			castled = board.hasCastled(color) ? 1 : 0;
+			kingHome += (row == startRow) ? 1 : 0;
+			// our pieces surrounding the king, the king included
+			piecesSurroundingKing += Long.bitCount((Bitboard.KING_ATTACKS[sq] | (1L << sq)) & own);
+			check |= board.isSquareAttacked(sq, enemy);
+		}
+		boolean checkMate = squaresControlled == 0 && check;
+
+		material -= 100 * (checkMate ? 1 : 0);
+
+		aggressive -= 16 * (check ? 1 : 0);
+		aggressive += 2 * pawnMobility;
+		aggressive += 1 * pawnAdvancedCentered;
+		aggressive += 1 * pieceMobility;
+		aggressive += 32 * piecesNotOnFirstRow;
+		aggressive += 16 * pawnColumnPenalty;
+		aggressive += 32 * knightNotIsolated;
+		aggressive += 2 * squaresControlled;
+		aggressive += 32 * rookOpenCol;
+
+		defensive += 64 * kingHome;
+		defensive += 8 * piecesSurroundingKing;
+		defensive += 64 * castled;
+
+		return material * 64 + aggressive + defensive;
+	}
+
+	/*
+	 * Number of squares getReachablePawnPosition would list for a pawn
+	 */
+	private static int countPawnReach(int color, int sq, long occupied) {
+		int count = Long.bitCount(Bitboard.PAWN_ATTACKS[color][sq] & occupied);
+		int row = sq >>> 3;
+		int step = color == Piece.WHITE ? -8 : 8;
+		int startRow = color == Piece.WHITE ? 6 : 1;
+		int ahead = sq + step;
+		if (ahead >= 0 && ahead < 64 && (occupied & (1L << ahead)) == 0) {
+			count++;
+			if (row == startRow && (occupied & (1L << (ahead + step))) == 0)
+				count++;
+		}
+		return count;
 	}
 
 	@Override
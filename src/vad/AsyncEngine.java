@@ -0,0 +1,123 @@
+package vad;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Non-blocking front end of an {@link AIPlayer}. A search is started with
+ * {@link #startSearch(GameBoard, TimeManager)} and its result delivered by a
+ * CompletableFuture, so the caller needs no thread of its own while the
+ * engine thinks. Searches run on a pool shared by all engines unless given
+ * an executor, so many games can be played in one JVM.
+ *
+ * The player must not be searched by other means (makeMove, pondering)
+ * while it is used by an engine.
+ */
+public class AsyncEngine {
+	private static final ExecutorService SHARED_POOL = Executors
+			.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+				Thread t = new Thread(runnable, "AsyncEngine search");
+				t.setDaemon(true);
+				return t;
+			});
+
+	private final AIPlayer player;
+	private final Executor executor;
+	/* Completes after the search itself returned, the caller can't cancel it */
+	private CompletableFuture<ScoredMove> running;
+	/* Set until the search returns, also when its future was cancelled before */
+	private boolean searching;
+
+	public AsyncEngine(AIPlayer player) {
+		this(player, SHARED_POOL);
+	}
+
+	public AsyncEngine(AIPlayer player, Executor executor) {
+		this.player = player;
+		this.executor = executor;
+	}
+
+	/**
+	 * Start searching a copy of the board for the side to move. The limits
+	 * count from this call, time spent waiting for a pool thread included.
+	 * Cancelling the returned future stops the search.
+	 *
+	 * @return the best move of the last completed iteration and its score,
+	 *         the move is null if not even the first iteration completed
+	 * @throws IllegalStateException
+	 *             if a search of this engine is still running
+	 */
+	public synchronized CompletableFuture<ScoredMove> startSearch(GameBoard board, TimeManager limits) {
+		if (isSearching())
+			throw new IllegalStateException("A search is already running");
+		GameBoard copy = board.copy();
+		player.initRows(copy);
+		player.setTimeManager(limits);
+		player.prepareSearch(copy);
+		/*
+		 * Cancelling the caller's future completes it at once, while the
+		 * search still runs until it notices the stop. The engine counts as
+		 * searching until then, so no second search shares the player.
+		 */
+		CompletableFuture<ScoredMove> future = new CompletableFuture<>();
+		/* Set before submitting, an executor running the task at once clears it before supplyAsync returns */
+		searching = true;
+		try {
+			running = CompletableFuture.supplyAsync(() -> {
+				try {
+					return player.search(copy, player.depth);
+				} finally {
+					/* Waits for this method to return if run on another thread, the lock is held */
+					finished();
+				}
+			}, executor).whenComplete((best, e) -> {
+				if (e != null)
+					future.completeExceptionally(e);
+				else
+					future.complete(best);
+			});
+		} catch (RuntimeException e) {
+			searching = false;
+			throw e;
+		}
+		future.whenComplete((best, e) -> {
+			if (future.isCancelled())
+				player.stop();
+		});
+		return future;
+	}
+
+	/**
+	 * Stop the running search. The search notices within a few nodes and
+	 * completes its future with the result of the last completed iteration.
+	 *
+	 * @return a future completing when the search has returned, with its
+	 *         result even if the future of startSearch was cancelled, and
+	 *         with a null move if no search was started
+	 */
+	public synchronized CompletableFuture<ScoredMove> stop() {
+		if (running == null)
+			return CompletableFuture.completedFuture(new ScoredMove(null, 0));
+		player.stop();
+		/* A copy, cancelling it must not make the search look finished */
+		return running.thenApply(best -> best);
+	}
+
+	/**
+	 * Whether a search is running, also after its future was cancelled and
+	 * until the search has actually returned.
+	 */
+	public synchronized boolean isSearching() {
+		return searching;
+	}
+
+	private synchronized void finished() {
+		searching = false;
+	}
+
+	public AIPlayer getPlayer() {
+		return player;
+	}
+}
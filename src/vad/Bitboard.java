@@ -0,0 +1,143 @@
+package vad;
+
+/**
+ * Bitboard helpers. A bitboard is a long with one bit per square, where the
+ * square index is row * 8 + col (the same order as {@link Position#all()}).
+ * Row 0 is black's back rank and row 7 is white's back rank.
+ *
+ * Leaper attacks are precomputed, sliding attacks are computed from ray masks
+ * by finding the first blocker in each direction.
+ */
+public class Bitboard {
+	public static final long EMPTY = 0L;
+	public static final long FULL = ~0L;
+
+	public static final long COL_A = 0x0101010101010101L;
+	public static final long COL_H = COL_A << 7;
+	public static final long ROW_0 = 0xFFL;
+	public static final long ROW_7 = ROW_0 << 56;
+
+	/* Ray directions, the first four increase the square index */
+	public static final int EAST = 0, SOUTH = 1, SOUTH_EAST = 2, SOUTH_WEST = 3;
+	public static final int WEST = 4, NORTH = 5, NORTH_WEST = 6, NORTH_EAST = 7;
+	private static final int[] DIR_COL = { 1, 0, 1, -1, -1, 0, -1, 1 };
+	private static final int[] DIR_ROW = { 0, 1, 1, 1, 0, -1, -1, -1 };
+
+	public static final long[] KNIGHT_ATTACKS = new long[64];
+	public static final long[] KING_ATTACKS = new long[64];
+	/* Squares attacked by a pawn of the given color standing on a square */
+	public static final long[][] PAWN_ATTACKS = new long[2][64];
+	public static final long[][] RAYS = new long[8][64];
+	/* Squares strictly between two squares on a common line, empty otherwise */
+	public static final long[][] BETWEEN = new long[64][64];
+	/* The whole line through two squares, empty if they are not aligned */
+	public static final long[][] LINE = new long[64][64];
+
+	static {
+		int[][] knightOffsets = { { -2, -1 }, { -2, 1 }, { 2, -1 }, { 2, 1 }, { -1, -2 }, { -1, 2 }, { 1, -2 }, { 1, 2 } };
+		for (int sq = 0; sq < 64; sq++) {
+			int col = sq & 7, row = sq >>> 3;
+			for (int[] o : knightOffsets)
+				KNIGHT_ATTACKS[sq] |= bit(col + o[0], row + o[1]);
+			for (int dc = -1; dc <= 1; dc++)
+				for (int dr = -1; dr <= 1; dr++)
+					if (dc != 0 || dr != 0)
+						KING_ATTACKS[sq] |= bit(col + dc, row + dr);
+			/* White pawns move up (towards row 0), black pawns move down */
+			PAWN_ATTACKS[Piece.WHITE][sq] = bit(col - 1, row - 1) | bit(col + 1, row - 1);
+			PAWN_ATTACKS[Piece.BLACK][sq] = bit(col - 1, row + 1) | bit(col + 1, row + 1);
+			for (int dir = 0; dir < 8; dir++) {
+				int c = col + DIR_COL[dir], r = row + DIR_ROW[dir];
+				while (c >= 0 && c < 8 && r >= 0 && r < 8) {
+					RAYS[dir][sq] |= 1L << (r * 8 + c);
+					c += DIR_COL[dir];
+					r += DIR_ROW[dir];
+				}
+			}
+		}
+		for (int from = 0; from < 64; from++) {
+			for (int dir = 0; dir < 8; dir++) {
+				int opposite = (dir + 4) % 8;
+				for (long bb = RAYS[dir][from]; bb != 0; bb &= bb - 1) {
+					int to = Long.numberOfTrailingZeros(bb);
+					BETWEEN[from][to] = RAYS[dir][from] & RAYS[opposite][to];
+					LINE[from][to] = RAYS[dir][from] | RAYS[opposite][from] | (1L << from);
+				}
+			}
+		}
+	}
+
+	private static long bit(int col, int row) {
+		if (col < 0 || col > 7 || row < 0 || row > 7)
+			return 0L;
+		return 1L << (row * 8 + col);
+	}
+
+	public static long bit(int square) {
+		return 1L << square;
+	}
+
+	public static long bit(Position pos) {
+		return 1L << pos.getIndex();
+	}
+
+	public static int firstSquare(long bb) {
+		return Long.numberOfTrailingZeros(bb);
+	}
+
+	public static int lastSquare(long bb) {
+		return 63 - Long.numberOfLeadingZeros(bb);
+	}
+
+	public static int count(long bb) {
+		return Long.bitCount(bb);
+	}
+
+	/**
+	 * Squares reachable along one ray, up to and including the first occupied
+	 * square.
+	 */
+	public static long rayAttacks(int dir, int square, long occupied) {
+		long ray = RAYS[dir][square];
+		long blockers = ray & occupied;
+		if (blockers == 0)
+			return ray;
+		int blocker = dir < 4 ? firstSquare(blockers) : lastSquare(blockers);
+		return ray ^ RAYS[dir][blocker];
+	}
+
+	public static long rookAttacks(int square, long occupied) {
+		return rayAttacks(EAST, square, occupied) | rayAttacks(WEST, square, occupied)
+				| rayAttacks(NORTH, square, occupied) | rayAttacks(SOUTH, square, occupied);
+	}
+
+	public static long bishopAttacks(int square, long occupied) {
+		return rayAttacks(NORTH_EAST, square, occupied) | rayAttacks(NORTH_WEST, square, occupied)
+				| rayAttacks(SOUTH_EAST, square, occupied) | rayAttacks(SOUTH_WEST, square, occupied);
+	}
+
+	public static long queenAttacks(int square, long occupied) {
+		return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+	}
+
+	/**
+	 * Squares attacked (or defended) by a piece of the given type and color
+	 * standing on square. Pawn pushes and castling are not attacks.
+	 */
+	public static long attacks(int type, int color, int square, long occupied) {
+		switch (type) {
+		case Piece.KING:
+			return KING_ATTACKS[square];
+		case Piece.QUEEN:
+			return queenAttacks(square, occupied);
+		case Piece.ROOK:
+			return rookAttacks(square, occupied);
+		case Piece.KNIGHT:
+			return KNIGHT_ATTACKS[square];
+		case Piece.BISHOP:
+			return bishopAttacks(square, occupied);
+		default:
+			return PAWN_ATTACKS[color][square];
+		}
+	}
+}
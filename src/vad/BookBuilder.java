@@ -0,0 +1,226 @@
+package vad;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds an {@link OpeningBook} from games in PGN. Every game is replayed
+ * on a GameBoard and the first moves of each are counted per position, with
+ * the result for the side that played them. Comments, variations and
+ * annotations are skipped. A game is followed up to the first move the
+ * engine can't play (underpromotion, en passant) or doesn't understand.
+ * Games that start from a set-up position or are of another variant are
+ * skipped.
+ *
+ * Usage: BookBuilder book-file max-plies min-games pgn-files...
+ */
+public class BookBuilder {
+	private final int maxPlies;
+	/* Games and points by position key and move */
+	private final Map<Long, Map<Integer, int[]>> stats = new HashMap<>();
+	private int games;
+
+	/* State of the game being read */
+	private GameBoard board;
+	private final List<long[]> played = new ArrayList<>();
+	private boolean following;
+	private String result;
+	private int commentDepth;
+	private int variationDepth;
+	/* Whether the last line read was a tag, the next movetext ends the tags */
+	private boolean inTags;
+
+	public BookBuilder(int maxPlies) {
+		this.maxPlies = maxPlies;
+		startGame();
+	}
+
+	public int getNumGames() {
+		return games;
+	}
+
+	/**
+	 * Read all games of a PGN stream.
+	 */
+	public void addGames(Reader pgn) throws IOException {
+		BufferedReader in = new BufferedReader(pgn);
+		for (String line = in.readLine(); line != null; line = in.readLine()) {
+			line = line.trim();
+			if (commentDepth == 0 && line.startsWith("[")) {
+				/* The first tag starts a new game, even if the last one had no result */
+				if (!inTags) {
+					if (!played.isEmpty())
+						endGame(result);
+					else
+						startGame();
+					inTags = true;
+				}
+				readTag(line);
+				continue;
+			}
+			if (!line.isEmpty())
+				inTags = false;
+			readMoves(line);
+		}
+		if (!played.isEmpty())
+			endGame(result);
+	}
+
+	private void readTag(String line) {
+		int quote = line.indexOf('"');
+		String value = quote < 0 ? "" : line.substring(quote + 1, Math.max(quote + 1, line.lastIndexOf('"')));
+		if (line.startsWith("[Result "))
+			result = value;
+		/* Moves from another start position would be counted under the wrong keys */
+		else if (line.startsWith("[FEN ") || (line.startsWith("[SetUp ") && value.equals("1"))
+				|| (line.startsWith("[Variant ") && !value.equalsIgnoreCase("Standard")))
+			following = false;
+	}
+
+	private void readMoves(String line) {
+		int i = 0;
+		while (i < line.length()) {
+			char c = line.charAt(i);
+			if (commentDepth > 0) {
+				if (c == '}')
+					commentDepth = 0;
+				i++;
+			} else if (c == '{') {
+				commentDepth = 1;
+				i++;
+			} else if (c == ';') {
+				return;
+			} else if (c == '(') {
+				variationDepth++;
+				i++;
+			} else if (c == ')') {
+				variationDepth--;
+				i++;
+			} else if (Character.isWhitespace(c)) {
+				i++;
+			} else {
+				int end = i;
+				while (end < line.length() && "{}();".indexOf(line.charAt(end)) < 0
+						&& !Character.isWhitespace(line.charAt(end)))
+					end++;
+				if (variationDepth == 0)
+					readToken(line.substring(i, end));
+				i = end;
+			}
+		}
+	}
+
+	private void readToken(String token) {
+		if (token.equals("1-0") || token.equals("0-1") || token.equals("1/2-1/2") || token.equals("*")) {
+			endGame(token);
+			return;
+		}
+		/* Move numbers, possibly glued to the move: 12. 12... 12.e4 */
+		token = token.replaceFirst("^[0-9]*\\.+", "");
+		if (token.isEmpty() || token.startsWith("$") || !following || played.size() >= maxPlies)
+			return;
+		int move = PackedMove.fromSan(board, token);
+		if (move == PackedMove.NONE) {
+			following = false;
+			return;
+		}
+		played.add(new long[] { board.getZobristKey(), PackedMove.getFromTo(move), board.getCurrentColor() });
+		board.apply(move);
+	}
+
+	/*
+	 * Count the moves of the game that just ended
+	 */
+	private void endGame(String result) {
+		if (!played.isEmpty()) {
+			games++;
+			for (long[] p : played) {
+				int[] s = stats.computeIfAbsent(p[0], k -> new HashMap<>()).computeIfAbsent((int) p[1],
+						k -> new int[2]);
+				s[0]++;
+				s[1] += points(result, (int) p[2]);
+			}
+		}
+		startGame();
+	}
+
+	private void startGame() {
+		board = new GameBoard();
+		played.clear();
+		following = true;
+		result = "*";
+		variationDepth = 0;
+	}
+
+	/*
+	 * 2 for a win and 1 for a draw of color
+	 */
+	private static int points(String result, int color) {
+		if (result.equals("1/2-1/2"))
+			return 1;
+		if (result.equals("1-0"))
+			return color == Piece.WHITE ? 2 : 0;
+		if (result.equals("0-1"))
+			return color == Piece.BLACK ? 2 : 0;
+		return 0;
+	}
+
+	/**
+	 * Write the moves played in at least minGames games as a book file.
+	 *
+	 * @return the number of book entries written
+	 */
+	public int write(Path file, int minGames) throws IOException {
+		List<long[]> entries = new ArrayList<>();
+		for (Map.Entry<Long, Map<Integer, int[]>> position : stats.entrySet())
+			for (Map.Entry<Integer, int[]> move : position.getValue().entrySet())
+				if (move.getValue()[0] >= minGames)
+					entries.add(new long[] { position.getKey(), move.getKey(), move.getValue()[0],
+							move.getValue()[1] });
+		/* By key, most played first */
+		entries.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[2], a[2]));
+
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+			out.writeLong(OpeningBook.MAGIC);
+			out.writeInt(OpeningBook.VERSION);
+			out.writeInt(entries.size());
+			out.writeLong(new GameBoard().getZobristKey());
+			out.writeLong(0);
+			for (long[] e : entries) {
+				/* Games don't fit in 16 bits past 65535, points are scaled with them to keep the score */
+				long games = Math.min(e[2], 0xFFFF);
+				out.writeLong(e[0]);
+				out.writeShort((int) e[1]);
+				out.writeShort((int) games);
+				out.writeInt((int) (e[3] * games / e[2]));
+			}
+		}
+		return entries.size();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.out.println("Usage: BookBuilder book-file max-plies min-games pgn-files...");
+			return;
+		}
+		long start = System.nanoTime();
+		BookBuilder builder = new BookBuilder(Integer.parseInt(args[1]));
+		for (int i = 3; i < args.length; i++) {
+			try (Reader in = Files.newBufferedReader(Paths.get(args[i]))) {
+				builder.addGames(in);
+			}
+		}
+		int entries = builder.write(Paths.get(args[0]), Integer.parseInt(args[2]));
+		System.out.format("%d games, %d book entries written in %.1f s\n", builder.getNumGames(), entries,
+				(System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,46 @@
+package vad;
+
+/**
+ * Compares the time to reach a fixed depth with MTD(f) and with principal
+ * variation search on the positions of {@link SearchBenchmark#POSITIONS}.
+ * Each position is searched with a fresh player and transposition table for
+ * each driver.
+ *
+ * Usage: DriverBenchmark [depth] [hash MB]
+ */
+public class DriverBenchmark {
+	private static final int[] DRIVERS = { AIPlayer.MTDF, AIPlayer.PVS };
+	private static final String[] NAMES = { "MTD(f)", "PVS" };
+
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+		int hashMB = args.length > 1 ? Integer.parseInt(args[1]) : TranspositionTable.DEFAULT_SIZE_MB;
+
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%9s %8s %12s %10s %8s\n", "position", "driver", "nodes", "seconds", "move"));
+		long[] nodes = new long[DRIVERS.length];
+		long[] time = new long[DRIVERS.length];
+		for (int p = 0; p < SearchBenchmark.POSITIONS.length; p++) {
+			for (int i = 0; i < DRIVERS.length; i++) {
+				GameBoard board = SearchBenchmark.playMoves(SearchBenchmark.POSITIONS[p]);
+				AIPlayer player = new AIPlayer(board.getCurrentColor(), 0, hashMB, false);
+				player.setTimeManager(TimeManager.fixedDepth(depth));
+				player.setSearchDriver(DRIVERS[i]);
+				player.initRows(board);
+				long start = System.nanoTime();
+				Move move = player.getBestMove(board, depth);
+				long t = System.nanoTime() - start;
+				time[i] += t;
+				nodes[i] += player.totalSearchedNodes;
+				report.append(String.format("%9d %8s %12d %10.2f %8s\n", p, NAMES[i], player.totalSearchedNodes, t / 1e9,
+						move == null ? "none" : PackedMove.toAlgebraic(move.pack())));
+				player.shutdown();
+			}
+		}
+		for (int i = 0; i < DRIVERS.length; i++)
+			report.append(String.format("%9s %8s %12d %10.2f\n", "total", NAMES[i], nodes[i], time[i] / 1e9));
+		System.out.println();
+		System.out.format("Time to depth %d\n", depth);
+		System.out.print(report);
+	}
+}
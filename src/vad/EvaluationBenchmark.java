@@ -0,0 +1,39 @@
+package vad;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the speed of AIPlayer.evaluateBoard and the bytes it allocates per
+ * call, using the allocation counter of the current thread.
+ *
+ * Usage: EvaluationBenchmark [calls per position]
+ */
+public class EvaluationBenchmark {
+	public static final int WARMUP_CALLS = 200000;
+
+	public static void main(String[] args) {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		GameBoard[] boards = new GameBoard[SearchBenchmark.POSITIONS.length];
+		for (int i = 0; i < boards.length; i++)
+			boards[i] = SearchBenchmark.playMoves(SearchBenchmark.POSITIONS[i]);
+		AIPlayer player = new AIPlayer(Piece.WHITE, 1, 1, false);
+		player.initRows(boards[0]);
+
+		long sink = 0;
+		for (int i = 0; i < WARMUP_CALLS; i++)
+			sink += player.evaluateBoard(boards[i % boards.length], PackedMove.NONE);
+
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i++)
+			sink += player.evaluateBoard(boards[i % boards.length], PackedMove.NONE);
+		long time = System.nanoTime() - start;
+		bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+		System.out.format("%d calls, %.1f ns per call, %.3f bytes allocated per call (checksum %d)\n", calls,
+				time / (double) calls, bytes / (double) calls, sink);
+	}
+}
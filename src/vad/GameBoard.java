@@ -1,6 +1,7 @@
 package vad;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import com.nwgjb.commons.util.BitField;
 
@@ -17,12 +18,37 @@ import com.nwgjb.commons.util.BitField;
 public class GameBoard
 {
 	/*
-	 * Column, Row
+	 * Square index (row * 8 + col) to piece, for constant time lookup
 	 */
-	Piece[][] board;
+	Piece[] squares;
+	/*
+	 * Bitboards, one per color and piece type, one per color and one for all
+	 * occupied squares. See Bitboard for the square layout.
+	 */
+	long[][] pieceBoards;
+	long[] colorBoards;
+	long occupied;
 	int currentColor = Piece.WHITE;
 	byte whiteFlags;
 	byte blackFlags;
+	/*
+	 * Zobrist key of the position, updated incrementally by setPiece, the flag
+	 * setters and every change of the side to move
+	 */
+	long zobristKey;
+	/*
+	 * Zobrist keys of the positions before each move applied since the board
+	 * was set up, with the plies since the last irreversible move at that
+	 * point. reversiblePlies counts the moves since the last capture, pawn
+	 * move, change of castling flags or null move; no earlier position can
+	 * repeat.
+	 */
+	long[] keyHistory = new long[INITIAL_HISTORY];
+	int[] reversibleHistory = new int[INITIAL_HISTORY];
+	int plies;
+	int reversiblePlies;
+
+	static final int INITIAL_HISTORY = 256;
 
 	public static final int KING_MOVED_FLAG = 0;
 	public static final int L_ROOK_FLAG = 1;
@@ -36,7 +62,7 @@ public class GameBoard
 
 	public GameBoard()
 	{
-		board = new Piece[WIDTH][HEIGHT];
+		this(true);
 		for (int i = 0; i < WIDTH; i++)
 		{
 			setPiece(Position.get(i, 0), Piece.get(Piece.BLACK, STARTING_ROW[i]));
@@ -48,47 +74,298 @@ public class GameBoard
 
 	public GameBoard(boolean dummy)
 	{
-		board = new Piece[8][8];
+		squares = new Piece[WIDTH * HEIGHT];
+		pieceBoards = new long[Piece.COLORS.length][Piece.NAMES.length];
+		colorBoards = new long[Piece.COLORS.length];
 	}
 	
 	public GameBoard copy() {
 		GameBoard copy = new GameBoard(true);
-		for (int i = 0; i < 8; i++) {
-			for (int j = 0; j < 8; j++) {
-				copy.setPiece(Position.get(i, j), getPiece(Position.get(i, j)));
-			}
-		}
+		System.arraycopy(squares, 0, copy.squares, 0, squares.length);
+		for (int color : Piece.COLORS)
+			System.arraycopy(pieceBoards[color], 0, copy.pieceBoards[color], 0, pieceBoards[color].length);
+		System.arraycopy(colorBoards, 0, copy.colorBoards, 0, colorBoards.length);
+		copy.occupied = occupied;
+		copy.zobristKey = zobristKey;
 		copy.currentColor = currentColor;
 		copy.whiteFlags = whiteFlags;
 		copy.blackFlags = blackFlags;
+		copy.keyHistory = Arrays.copyOf(keyHistory, keyHistory.length);
+		copy.reversibleHistory = Arrays.copyOf(reversibleHistory, reversibleHistory.length);
+		copy.plies = plies;
+		copy.reversiblePlies = reversiblePlies;
 		return copy;
 	}
 
+	public static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+	private static final String FEN_PIECES = "kqrnbp";
+
+	/**
+	 * Load a position from Forsyth-Edwards Notation. The first rank of the
+	 * placement field is row 0. En passant and move counters are ignored, a
+	 * missing castling right marks that rook as moved.
+	 */
+	public static GameBoard fromFEN(String fen)
+	{
+		String[] fields = fen.trim().split("\\s+");
+		GameBoard board = new GameBoard(true);
+		int row = 0, col = 0;
+		for (char c : fields[0].toCharArray())
+		{
+			if (c == '/')
+			{
+				row++;
+				col = 0;
+			} else if (Character.isDigit(c))
+			{
+				col += c - '0';
+			} else
+			{
+				int type = FEN_PIECES.indexOf(Character.toLowerCase(c));
+				if (type < 0 || col > 7 || row > 7)
+					throw new IllegalArgumentException("Invalid FEN " + fen);
+				int color = Character.isUpperCase(c) ? Piece.WHITE : Piece.BLACK;
+				board.setPiece(Position.get(col++, row), Piece.get(color, type));
+			}
+		}
+		board.currentColor = fields.length > 1 && fields[1].equals("b") ? Piece.BLACK : Piece.WHITE;
+		String castling = fields.length > 2 ? fields[2] : "-";
+		for (int color : Piece.COLORS)
+		{
+			boolean right = castling.indexOf(color == Piece.WHITE ? 'K' : 'k') >= 0;
+			boolean left = castling.indexOf(color == Piece.WHITE ? 'Q' : 'q') >= 0;
+			board.setHasRRookMoved(color, !right);
+			board.setHasLRookMoved(color, !left);
+			board.setHasKingMoved(color, !right && !left);
+		}
+		board.rehash();
+		return board;
+	}
+
 	public void setPiece(Position pos, Piece piece)
 	{
-		board[pos.col][pos.row] = piece;
+		setPiece(pos.index, piece);
+	}
+
+	public void setPiece(int index, Piece piece)
+	{
+		long bit = 1L << index;
+		Piece old = squares[index];
+		if (old != null)
+		{
+			zobristKey ^= Zobrist.piece(old, index);
+			pieceBoards[old.getColor()][old.getType()] &= ~bit;
+			colorBoards[old.getColor()] &= ~bit;
+			occupied &= ~bit;
+		}
+		squares[index] = piece;
+		if (piece != null)
+		{
+			zobristKey ^= Zobrist.piece(piece, index);
+			pieceBoards[piece.getColor()][piece.getType()] |= bit;
+			colorBoards[piece.getColor()] |= bit;
+			occupied |= bit;
+		}
 	}
 
 	public boolean isEmpty(Position pos)
 	{
-		return board[pos.col][pos.row] == null;
+		return (occupied & (1L << pos.index)) == 0;
 	}
 	
 	public int getNumAllPieces() 
+	{
+		return Long.bitCount(occupied);
+	}
+
+	public Piece getPiece(Position loc)
+	{
+		return squares[loc.index];
+	}
+
+	public Piece getPiece(int square)
+	{
+		return squares[square];
+	}
+
+	public int getCurrentColor()
+	{
+		return currentColor;
+	}
+
+	/**
+	 * Zobrist key of the current position, including side to move and
+	 * castling flags. Equal positions have equal keys.
+	 */
+	public long getZobristKey()
+	{
+		return zobristKey;
+	}
+
+	/**
+	 * Recompute the Zobrist key from scratch. Only needed after the flags or
+	 * current color were assigned directly.
+	 */
+	public void rehash()
+	{
+		zobristKey = Zobrist.compute(this);
+	}
+
+	/**
+	 * Number of moves applied to this board, null moves included.
+	 */
+	public int getPlies()
+	{
+		return plies;
+	}
+
+	/**
+	 * How often the current position occurred before since the last
+	 * irreversible move. Two means it occurs for the third time.
+	 */
+	public int getRepetitions()
 	{
 		int count = 0;
-		for (int i = 0; i < 8; i++) {
-			for (int j = 0; j < 8; j++) {
-				if (!isEmpty(Position.get(i, j)))
-					count++;
-			}
+		for (int i = plies - 4; i >= plies - reversiblePlies; i -= 2)
+		{
+			if (keyHistory[i] == zobristKey)
+				count++;
 		}
 		return count;
 	}
 
-	public Piece getPiece(Position loc)
+	/**
+	 * Whether a search whose root was at ply searchRoot should score the
+	 * current position as a draw: it occurred twice before, or once since
+	 * the root, in which case the side that repeated it can do so again.
+	 * Only positions with the same side to move since the last irreversible
+	 * move are compared.
+	 */
+	public boolean isRepetition(int searchRoot)
+	{
+		boolean before = false;
+		for (int i = plies - 4; i >= plies - reversiblePlies; i -= 2)
+		{
+			if (keyHistory[i] == zobristKey)
+			{
+				if (i >= searchRoot || before)
+					return true;
+				before = true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Remember the current position before a move, reversible or not
+	 */
+	private void pushHistory(boolean reversible)
+	{
+		if (plies == keyHistory.length)
+		{
+			keyHistory = Arrays.copyOf(keyHistory, plies * 2);
+			reversibleHistory = Arrays.copyOf(reversibleHistory, plies * 2);
+		}
+		keyHistory[plies] = zobristKey;
+		reversibleHistory[plies++] = reversiblePlies;
+		reversiblePlies = reversible ? reversiblePlies + 1 : 0;
+	}
+
+	private void popHistory()
+	{
+		reversiblePlies = reversibleHistory[--plies];
+	}
+
+	private void switchColor()
+	{
+		currentColor = Piece.getOppositeColor(currentColor);
+		zobristKey ^= Zobrist.BLACK_TO_MOVE;
+	}
+
+	private void setFlags(int color, int flags)
+	{
+		if (color == Piece.BLACK)
+		{
+			zobristKey ^= Zobrist.FLAGS[Piece.BLACK][blackFlags & 0xF] ^ Zobrist.FLAGS[Piece.BLACK][flags & 0xF];
+			blackFlags = (byte) flags;
+		} else
+		{
+			zobristKey ^= Zobrist.FLAGS[Piece.WHITE][whiteFlags & 0xF] ^ Zobrist.FLAGS[Piece.WHITE][flags & 0xF];
+			whiteFlags = (byte) flags;
+		}
+	}
+
+	/**
+	 * Bitboard of all pieces of the given color and type.
+	 */
+	public long getPieces(int color, int type)
+	{
+		return pieceBoards[color][type];
+	}
+
+	/**
+	 * Bitboard of all pieces of the given color.
+	 */
+	public long getPieces(int color)
+	{
+		return colorBoards[color];
+	}
+
+	public long getOccupied()
 	{
-		return board[loc.col][loc.row];
+		return occupied;
+	}
+
+	/**
+	 * Bitboard of the pieces of the given color attacking a square, looking
+	 * outwards from the square: leaper tables for knights, kings and pawns and
+	 * sliding rays for the others.
+	 * 
+	 * @param square
+	 *            Target square index
+	 * @param byColor
+	 *            Color of the attackers
+	 * @param occupied
+	 *            Occupancy used for sliding rays, pass a modified mask to see
+	 *            x-ray attackers
+	 */
+	public long getAttackers(int square, int byColor, long occupied)
+	{
+		long[] pieces = pieceBoards[byColor];
+		long queens = pieces[Piece.QUEEN];
+		long attackers = Bitboard.KNIGHT_ATTACKS[square] & pieces[Piece.KNIGHT];
+		attackers |= Bitboard.KING_ATTACKS[square] & pieces[Piece.KING];
+		/* A pawn attacks the square if a pawn of the other color there would attack the pawn */
+		attackers |= Bitboard.PAWN_ATTACKS[Piece.getOppositeColor(byColor)][square] & pieces[Piece.PAWN];
+		attackers |= Bitboard.rookAttacks(square, occupied) & (pieces[Piece.ROOK] | queens);
+		attackers |= Bitboard.bishopAttacks(square, occupied) & (pieces[Piece.BISHOP] | queens);
+		return attackers & occupied;
+	}
+
+	public boolean isSquareAttacked(int square, int byColor)
+	{
+		return getAttackers(square, byColor, occupied) != 0;
+	}
+
+	public boolean isSquareAttacked(Position pos, int byColor)
+	{
+		return getAttackers(pos.index, byColor, occupied) != 0;
+	}
+
+	/**
+	 * Bitboard of the squares attacked by all pieces of the given color.
+	 */
+	public long getAttackedSquares(int color)
+	{
+		long attacked = 0;
+		for (int type = 0; type < Piece.NAMES.length; type++)
+		{
+			for (long bb = pieceBoards[color][type]; bb != 0; bb &= bb - 1)
+			{
+				attacked |= Bitboard.attacks(type, color, Long.numberOfTrailingZeros(bb), occupied);
+			}
+		}
+		return attacked;
 	}
 
 	public void apply(Move m)
@@ -98,104 +375,146 @@ public class GameBoard
 			return;
 		}
 		
-		Position start = m.getStartPosition();
-		Position dest = m.getDestPosition();
-		Piece startPiece = getPiece(start);
-		
-		if (startPiece == null) {
+		if (getPiece(m.getStartPosition()) == null) {
 			System.out.println("Error no piece at start location");
 			return;
 		}
 
-		if (m.isFirstKingMove())
+		apply(m.pack());
+	}
+
+	/**
+	 * Apply a {@link PackedMove packed move} of the side to move.
+	 */
+	public void apply(int move)
+	{
+		int start = PackedMove.getFrom(move);
+		int dest = PackedMove.getTo(move);
+		Piece startPiece = squares[start];
+		pushHistory(!PackedMove.isCapture(move) && PackedMove.getPieceType(move) != Piece.PAWN
+				&& PackedMove.getFlags(move) == 0);
+
+		if (PackedMove.hasFlag(move, Move.KING_MOVED_FLAG))
 			setHasKingMoved(currentColor, true);
 		
-		if (m.isFirstLRookMove())
+		if (PackedMove.hasFlag(move, Move.L_ROOK_FLAG))
 			setHasLRookMoved(currentColor, true);
-		if (m.isFirstRRookMove())
+		if (PackedMove.hasFlag(move, Move.R_ROOK_FLAG))
 			setHasRRookMoved(currentColor, true);
+		if (PackedMove.hasFlag(move, Move.KILLED_L_ROOK_FLAG))
+			setHasLRookMoved(Piece.getOppositeColor(currentColor), true);
+		if (PackedMove.hasFlag(move, Move.KILLED_R_ROOK_FLAG))
+			setHasRRookMoved(Piece.getOppositeColor(currentColor), true);
 
 		/* Check if it's castling */
 		if (startPiece.getType() == Piece.KING)
 		{
-			if (start.getColumn() - 2 == dest.getColumn())
+			int row = dest & ~7;
+			if ((start & 7) - 2 == (dest & 7))
 			{
 				// L Castle
-				Position rookPosition = Position.get(0, dest.getRow());
-				setPiece(dest.getRight(), getPiece(rookPosition));
-				setPiece(rookPosition, null);
+				setPiece(dest + 1, squares[row]);
+				setPiece(row, null);
 				setCastled(currentColor, true);
-			} else if (start.getColumn() + 2 == dest.getColumn())
+			} else if ((start & 7) + 2 == (dest & 7))
 			{
 				// R Castle
-				Position rookPosition = Position.get(7, dest.getRow());
-				setPiece(dest.getLeft(), getPiece(rookPosition));
-				setPiece(rookPosition, null);
+				setPiece(dest - 1, squares[row + 7]);
+				setPiece(row + 7, null);
 				setCastled(currentColor, true);
 			}
-		} else if (m.isPawnPromotion()) {
+		} else if (PackedMove.isPromotion(move)) {
 			//Pawn promotion
-			startPiece = new Piece(startPiece.getColor(), Piece.QUEEN);
+			startPiece = Piece.get(startPiece.getColor(), Piece.QUEEN);
 		}
 
 		setPiece(start, null);
 		setPiece(dest, startPiece);
-
-		// System.out.println("Move apply: " + m.getKilledPiece());
 		
-		currentColor = Piece.getOppositeColor(currentColor); // change whose turn it is
+		switchColor(); // change whose turn it is
 
 	}
 
 	public void undo(Move move)
 	{
-		currentColor = Piece.getOppositeColor(currentColor); // undo whose turn it is
-		Position start = move.getStartPosition();
-		Position dest = move.getDestPosition();
-		Piece movedPiece = getPiece(dest);
-		if (move.isFirstKingMove())
+		undo(move.pack());
+	}
+
+	/**
+	 * Take back a {@link PackedMove packed move}, which must be the last move
+	 * applied.
+	 */
+	public void undo(int move)
+	{
+		switchColor(); // undo whose turn it is
+		popHistory();
+		int start = PackedMove.getFrom(move);
+		int dest = PackedMove.getTo(move);
+		Piece movedPiece = squares[dest];
+		int color = movedPiece.getColor();
+		if (PackedMove.hasFlag(move, Move.KING_MOVED_FLAG))
 		{
-			setHasKingMoved(movedPiece.getColor(), false);
+			setHasKingMoved(color, false);
 		}
-		if (move.isFirstLRookMove())
+		if (PackedMove.hasFlag(move, Move.L_ROOK_FLAG))
 		{
-			setHasLRookMoved(movedPiece.getColor(), false);
-			// System.out.println("LROOK UNDO");
+			setHasLRookMoved(color, false);
 		}
-		if (move.isFirstRRookMove())
+		if (PackedMove.hasFlag(move, Move.R_ROOK_FLAG))
 		{
-			setHasRRookMoved(movedPiece.getColor(), false);
+			setHasRRookMoved(color, false);
+		}
+		if (PackedMove.hasFlag(move, Move.KILLED_L_ROOK_FLAG))
+		{
+			setHasLRookMoved(Piece.getOppositeColor(color), false);
+		}
+		if (PackedMove.hasFlag(move, Move.KILLED_R_ROOK_FLAG))
+		{
+			setHasRRookMoved(Piece.getOppositeColor(color), false);
 		}
-		// System.out.println("Move undo: " + move.getKilledPiece());
 
 		if (movedPiece.getType() == Piece.KING)
 		{
-			if (start.getColumn() - 2 == dest.getColumn())
+			int row = dest & ~7;
+			if ((start & 7) - 2 == (dest & 7))
 			{
 				// L Castle
-				Position rookOriginalPosition = Position.get(0, dest.getRow());
-				Position rookCurrentPosition = dest.getRight();
-				setPiece(rookOriginalPosition, getPiece(rookCurrentPosition));
-				setPiece(rookCurrentPosition, null);
-				setCastled(movedPiece.getColor(), false);
-			} else if (start.getColumn() + 2 == dest.getColumn())
+				setPiece(row, squares[dest + 1]);
+				setPiece(dest + 1, null);
+				setCastled(color, false);
+			} else if ((start & 7) + 2 == (dest & 7))
 			{
 				// R Castle
-				Position rookOriginalPosition = Position.get(7, dest.getRow());
-				Position rookCurrentPosition = dest.getLeft();
-				setPiece(rookOriginalPosition, getPiece(rookCurrentPosition));
-				setPiece(rookCurrentPosition, null);
-				setCastled(movedPiece.getColor(), false);
+				setPiece(row + 7, squares[dest - 1]);
+				setPiece(dest - 1, null);
+				setCastled(color, false);
 			}
-		} else if (move.isPawnPromotion()) {
+		} else if (PackedMove.isPromotion(move)) {
 			//Pawn promotion undo
-			movedPiece = new Piece(movedPiece.getColor(), Piece.PAWN);
+			movedPiece = Piece.get(color, Piece.PAWN);
 		}
 
-		setPiece(move.getStartPosition(), movedPiece);
-		setPiece(move.getDestPosition(), move.getKilledPiece());
+		setPiece(start, movedPiece);
+		setPiece(dest, PackedMove.isCapture(move)
+				? Piece.get(PackedMove.getCapturedColor(move), PackedMove.getCapturedType(move)) : null);
 	}
 	
+	/**
+	 * Pass the turn to the other color without moving, for null move
+	 * pruning. Take it back with undoNullMove.
+	 */
+	public void applyNullMove()
+	{
+		pushHistory(false);
+		switchColor();
+	}
+
+	public void undoNullMove()
+	{
+		switchColor();
+		popHistory();
+	}
+
 	public ArrayList<Move> getAllPossibleMovesWithoutValidation(int color) {
 		return getAllPossibleMovesWithoutValidation(color, false);
 	}
@@ -203,22 +522,13 @@ public class GameBoard
 	public ArrayList<Move> getAllPossibleMovesWithoutValidation(int color, boolean ignoreEKing)
 	{
 		ArrayList<Move> moves = new ArrayList<>();
-		for (int r = 0; r < 8; r++)
+		long pieces = colorBoards[color];
+		if (ignoreEKing)
+			pieces &= ~pieceBoards[color][Piece.KING];
+		/* Lowest square first, the same row then column order as a board scan */
+		for (; pieces != 0; pieces &= pieces - 1)
 		{
-			for (int c = 0; c < 8; c++)
-			{
-				if (isEmpty(Position.get(c, r)))
-					continue;
-				
-				Piece piece = getPiece(Position.get(c, r));
-				
-				if (ignoreEKing && piece.getType() == Piece.KING)
-					continue;
-				if (piece.getColor() == color)
-				{
-					moves.addAll(MoveHelper.getAllMoves4PieceWithoutValidation(this, Position.get(c, r)));
-				}
-			}
+			moves.addAll(MoveHelper.getAllMoves4PieceWithoutValidation(this, Position.get(Long.numberOfTrailingZeros(pieces))));
 		}
 		return moves;
 	}
@@ -226,65 +536,63 @@ public class GameBoard
 	public ArrayList<Move> getAllPossibleMoves(int color)
 	{
 		ArrayList<Move> moves = new ArrayList<>();
-		for (int r = 0; r < 8; r++)
-		{
-			for (int c = 0; c < 8; c++)
-			{
-				if (isEmpty(Position.get(c, r)))
-					continue;
-				if (getPiece(Position.get(c, r)).getColor() == color)
-				{
-					moves.addAll(MoveHelper.getAllMoves4Piece(this, Position.get(c, r), false));
-				}
-			}
-		}
+		MoveHelper.getLegalMoves(this, color, Bitboard.FULL, false, moves);
 		return moves;
 	}
 
+	public ArrayList<Move> getAllPossibleCaptures(int color)
+	{
+		ArrayList<Move> moves = new ArrayList<>();
+		MoveHelper.getLegalMoves(this, color, Bitboard.FULL, true, moves);
+		return moves;
+	}
+
+	/**
+	 * Clear the list and fill it with the legal moves of a color, without
+	 * allocating.
+	 */
+	public void getAllPossibleMoves(int color, MoveList moves)
+	{
+		moves.clear();
+		MoveHelper.getLegalMoves(this, color, Bitboard.FULL, MoveHelper.ALL_MOVES, moves);
+	}
+
+	/**
+	 * Clear the list and fill it with the legal captures and promotions of a
+	 * color, without allocating.
+	 */
+	public void getAllPossibleCaptures(int color, MoveList moves)
+	{
+		moves.clear();
+		MoveHelper.getLegalMoves(this, color, Bitboard.FULL, MoveHelper.CAPTURES, moves);
+	}
+
 	public ArrayList<Move> getAllPossibleMovesWithDefend(int color)
 	{
 		ArrayList<Move> moves = new ArrayList<>();
-		for (int r = 0; r < 8; r++)
+		for (long pieces = colorBoards[color]; pieces != 0; pieces &= pieces - 1)
 		{
-			for (int c = 0; c < 8; c++)
-			{
-				if (isEmpty(Position.get(c, r)))
-					continue;
-				if (getPiece(Position.get(c, r)).getColor() == color)
-				{
-					moves.addAll(MoveHelper.getAllMoves4Piece(this, Position.get(c, r), true));
-				}
-			}
+			moves.addAll(MoveHelper.getAllMoves4Piece(this, Position.get(Long.numberOfTrailingZeros(pieces)), true));
 		}
 		return moves;
 	}
 
 	public int getNumPieces(int color)
 	{
-		int count = 0;
-		for (int r = 0; r < 8; r++)
-		{
-			for (int c = 0; c < 8; c++)
-			{
-				if (isEmpty(Position.get(c, r)))
-					continue;
-				if (getPiece(Position.get(c, r)).getColor() == color)
-					count++;
-			}
-		}
-		return count;
+		return Long.bitCount(colorBoards[color]);
+	}
+
+	public int getNumPieces(int color, int type)
+	{
+		return Long.bitCount(pieceBoards[color][type]);
 	}
 
 	public boolean isCheck(int kingColor)
 	{
-		for (Move m : getAllPossibleMovesWithoutValidation(Piece.getOppositeColor(kingColor)))
-		{
-			if (m.getKilledPiece() != null && m.getKilledPiece().getType() == Piece.KING)
-			{
-				return true;
-			}
-		}
-		return false;
+		long king = pieceBoards[kingColor][Piece.KING];
+		if (king == 0)
+			return false;
+		return isSquareAttacked(Long.numberOfTrailingZeros(king), Piece.getOppositeColor(kingColor));
 	}
 
 	public boolean isCheckMate(int kingColor)
@@ -343,62 +651,39 @@ public class GameBoard
 
 	public void setHasKingMoved(int color, boolean moved)
 	{
-		if (color == Piece.BLACK)
-		{
-			blackFlags=(byte) BitField.changeBit(blackFlags, KING_MOVED_FLAG, moved);
-		} else
-		{
-			whiteFlags=(byte) BitField.changeBit(whiteFlags, KING_MOVED_FLAG, moved);
-		}
+		setFlags(color, BitField.changeBit(color == Piece.BLACK ? blackFlags : whiteFlags, KING_MOVED_FLAG, moved));
 	}
 
 	public void setHasLRookMoved(int color, boolean moved)
 	{
-		if (color == Piece.BLACK)
-		{
-			blackFlags=(byte) BitField.changeBit(blackFlags, L_ROOK_FLAG, moved);
-		} else
-		{
-			whiteFlags=(byte) BitField.changeBit(whiteFlags, L_ROOK_FLAG, moved);
-		}
+		setFlags(color, BitField.changeBit(color == Piece.BLACK ? blackFlags : whiteFlags, L_ROOK_FLAG, moved));
 	}
 
 	public void setHasRRookMoved(int color, boolean moved)
 	{
-		if (color == Piece.BLACK)
-		{
-			blackFlags=(byte) BitField.changeBit(blackFlags, R_ROOK_FLAG, moved);
-		} else
-		{
-			whiteFlags=(byte) BitField.changeBit(whiteFlags, R_ROOK_FLAG, moved);
-		}
+		setFlags(color, BitField.changeBit(color == Piece.BLACK ? blackFlags : whiteFlags, R_ROOK_FLAG, moved));
 	}
 	
 	public void setCastled(int color, boolean castled)
 	{
-		if (color == Piece.BLACK)
-		{
-			blackFlags=(byte) BitField.changeBit(blackFlags, CASTLED, castled);
-		} else
-		{
-			whiteFlags=(byte) BitField.changeBit(whiteFlags, CASTLED, castled);
-		}
+		setFlags(color, BitField.changeBit(color == Piece.BLACK ? blackFlags : whiteFlags, CASTLED, castled));
 	}
 	
 	public String toString() {
-		String out = "";
+		StringBuilder out = new StringBuilder();
 		for (int i = 0; i < 8; i++) {
 			for (int j = 0; j < 8; j++) {
-				if (!isEmpty(Position.get(i, j))) {
-					out += getPiece(Position.get(i, j)).getType();
+				Piece piece = squares[j * 8 + i];
+				if (piece != null) {
+					out.append(piece.getType());
 				} else {
-					out += " ";
+					out.append(' ');
 				}
 				if (j != 7)
-					out += "|";
+					out.append('|');
 			}
-			out += "\n";
+			out.append('\n');
 		}
-		return out;
+		return out.toString();
 	}
 }
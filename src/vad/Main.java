@@ -2,6 +2,7 @@ package vad;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.nio.file.Paths;
 import java.util.Random;
 
 import javax.swing.UIManager;
@@ -22,6 +23,40 @@ public class Main {
 
 	static final boolean NETWORKING = false;
 
+	/* System property naming the transposition table snapshot of the AI */
+	static final String HASH_FILE_PROPERTY = "vad.hashFile";
+	/* System property naming the opening book file of the AI */
+	static final String BOOK_PROPERTY = "vad.book";
+	/* System property naming the directory of the AI's endgame tablebases */
+	static final String TABLEBASES_PROPERTY = "vad.tablebases";
+
+	/*
+	 * Set up an AI player from the system properties, and save its state when
+	 * the JVM exits
+	 */
+	static void configure(AIPlayer player) {
+		String hashFile = System.getProperty(HASH_FILE_PROPERTY);
+		if (hashFile != null)
+			player.setHashFile(Paths.get(hashFile));
+		String book = System.getProperty(BOOK_PROPERTY);
+		if (book != null) {
+			try {
+				player.setOpeningBook(OpeningBook.open(Paths.get(book)));
+			} catch (IOException e) {
+				System.out.println("Could not open opening book " + book + ": " + e);
+			}
+		}
+		String tablebases = System.getProperty(TABLEBASES_PROPERTY);
+		if (tablebases != null) {
+			try {
+				player.setTablebases(Tablebases.load(Paths.get(tablebases)));
+			} catch (IOException e) {
+				System.out.println("Could not load tablebases from " + tablebases + ": " + e);
+			}
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(player::shutdown, "AIPlayer shutdown"));
+	}
+
 	public static void startGame(Player p1, Player p2) {
 		GameBoard board = new GameBoard();
 		p1.update(board);
@@ -59,7 +94,9 @@ public class Main {
 			socket.close();
 		} else {
 			// p2 = new UserPlayer(Piece.getOppositeColor(col));
-			p2 = new AIPlayer(Piece.getOppositeColor(col), 5.0);
+			AIPlayer ai = new AIPlayer(Piece.getOppositeColor(col), 5.0);
+			configure(ai);
+			p2 = ai;
 			// p2 = new OldAIPlayer(Piece.getOppositeColor(col));
 		}
 		// Player p1 = new DebugPlayer(col, (AIPlayer) p2);
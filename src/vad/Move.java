@@ -17,29 +17,37 @@ public class Move implements Serializable {
 	public static final int L_ROOK_FLAG = 1;
 	public static final int R_ROOK_FLAG = 2;
 	public static final int PAWN_PROMOTION_FLAG = 3;
+	/* The move captures a rook that could still castle */
+	public static final int KILLED_L_ROOK_FLAG = 4;
+	public static final int KILLED_R_ROOK_FLAG = 5;
 
 	public Move(GameBoard b, Position start, Position dest) {
-		this.startPiece = b.getPiece(start);
-		this.start = start;
-		this.dest = dest;
+		this(PackedMove.create(b, start.getIndex(), dest.getIndex()));
+	}
 
-		killedPiece = b.getPiece(dest);
+	/**
+	 * Object view of a {@link PackedMove packed move}.
+	 */
+	public Move(int packed) {
+		start = Position.get(PackedMove.getFrom(packed));
+		dest = Position.get(PackedMove.getTo(packed));
+		startPiece = Piece.get(PackedMove.getColor(packed), PackedMove.getPieceType(packed));
+		if (PackedMove.isCapture(packed))
+			killedPiece = Piece.get(PackedMove.getCapturedColor(packed), PackedMove.getCapturedType(packed));
+		flags = (byte) PackedMove.getFlags(packed);
+	}
 
-		if (startPiece.getType() == Piece.KING && !b.hasKingMoved(startPiece.getColor())) {
-			flags = (byte) BitField.setBit(flags, KING_MOVED_FLAG);
-		}
-		if (startPiece.getType() == Piece.ROOK) {
-			if (start.getColumn() == 0 && !b.hasLRookMoved(startPiece.getColor())) {
-				// TODO Check whether it's the bottom line
-				// TODO We need to set L_ROOK_FLAG if l rook is killed
-				flags = (byte) BitField.setBit(flags, L_ROOK_FLAG);
-			} else if (start.getColumn() == 7 && start.getRow() == 0 && !b.hasRRookMoved(startPiece.getColor())) {
-				flags = (byte) BitField.setBit(flags, R_ROOK_FLAG);
-			}
-		}
-		if ((dest.getRow() == 0 || dest.getRow() == 7) && startPiece.getType() == Piece.PAWN) {
-			flags = (byte) BitField.setBit(flags, PAWN_PROMOTION_FLAG);
-		}
+	/**
+	 * This move encoded as an int, see {@link PackedMove}.
+	 */
+	public int pack() {
+		int packed = start.getIndex() | dest.getIndex() << PackedMove.TO_SHIFT
+				| startPiece.getType() << PackedMove.PIECE_SHIFT | startPiece.getColor() << PackedMove.COLOR_SHIFT
+				| (flags & 0xFF) << PackedMove.FLAGS_SHIFT;
+		if (killedPiece != null)
+			packed |= PackedMove.CAPTURE_BIT | killedPiece.getType() << PackedMove.CAPTURED_SHIFT
+					| killedPiece.getColor() << PackedMove.CAPTURED_COLOR_SHIFT;
+		return packed;
 	}
 
 	public String toString() {
@@ -47,6 +55,13 @@ public class Move implements Serializable {
 				+ dest.getRow() + "R " + dest.getColumn() + "C";
 	}
 
+	/**
+	 * Coordinate notation such as "e2e4", with a "q" suffix for promotions.
+	 */
+	public String toAlgebraic() {
+		return start.toAlgebraic() + dest.toAlgebraic() + (isPawnPromotion() ? "q" : "");
+	}
+
 	public Position getStartPosition() {
 		return start;
 	}
@@ -75,6 +90,14 @@ public class Move implements Serializable {
 		return BitField.getBit(flags, PAWN_PROMOTION_FLAG);
 	}
 
+	public boolean isKilledLRook() {
+		return BitField.getBit(flags, KILLED_L_ROOK_FLAG);
+	}
+
+	public boolean isKilledRRook() {
+		return BitField.getBit(flags, KILLED_R_ROOK_FLAG);
+	}
+
 	public boolean equals(Object o) {
 		if (o == null)
 			return false;
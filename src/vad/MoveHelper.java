@@ -5,6 +5,13 @@ import java.util.List;
 
 public class MoveHelper
 {
+	/* Kinds of moves getLegalMoves can generate into a MoveList */
+	public static final int ALL_MOVES = 0;
+	/* Captures and pawn promotions */
+	public static final int CAPTURES = 1;
+	/* Everything else, castling included */
+	public static final int QUIET_MOVES = 2;
+
 	public static ArrayList<Position> getReachablePosition(GameBoard board, int col, int row, boolean defend)
 	{
 		Piece p = board.getPiece(Position.get(col, row));
@@ -43,6 +50,11 @@ public class MoveHelper
 	public static ArrayList<Move> getAllMoves4Piece(GameBoard board, Position pos, boolean defend)
 	{
 		ArrayList<Move> moves = new ArrayList<>();
+		if (!defend)
+		{
+			getLegalMoves(board, board.getPiece(pos).getColor(), Bitboard.bit(pos), false, moves);
+			return moves;
+		}
 		Piece piece = board.getPiece(pos);
 		for (Position p : getReachablePosition(board, pos.getColumn(), pos.getRow(), defend))
 		{
@@ -55,6 +67,162 @@ public class MoveHelper
 		return moves;
 	}
 
+	/*
+	 * Legal captures and pawn promotions of a piece, the moves searched by
+	 * quiescence search
+	 */
+	public static ArrayList<Move> getAllCaptures4Piece(GameBoard board, Position pos)
+	{
+		ArrayList<Move> moves = new ArrayList<>();
+		getLegalMoves(board, board.getPiece(pos).getColor(), Bitboard.bit(pos), true, moves);
+		return moves;
+	}
+
+	/* Legal Move Generation */
+
+	/**
+	 * Generate legal moves without applying them. Checkers and pinned pieces
+	 * are found once up front: in double check only the king moves, in single
+	 * check the other pieces must capture the checker or block its ray, and a
+	 * pinned piece may only move along the line through its king and pinner.
+	 * The king never steps onto an attacked square, which is tested with the
+	 * king removed from the board so it can't hide behind itself.
+	 * 
+	 * @param board
+	 *            Current game board
+	 * @param color
+	 *            Color to generate moves for
+	 * @param from
+	 *            Bitboard of the squares whose pieces should move
+	 * @param capturesOnly
+	 *            Only generate captures and pawn promotions
+	 * @param moves
+	 *            List to add the moves to, in square order of the moving piece
+	 */
+	public static void getLegalMoves(GameBoard board, int color, long from, boolean capturesOnly, List<Move> moves)
+	{
+		MoveList packed = new MoveList();
+		getLegalMoves(board, color, from, capturesOnly ? CAPTURES : ALL_MOVES, packed);
+		for (int i = 0; i < packed.size(); i++)
+			moves.add(new Move(packed.get(i)));
+	}
+
+	/**
+	 * Same as {@link #getLegalMoves(GameBoard, int, long, boolean, List)},
+	 * adding {@link PackedMove packed moves} of one kind (ALL_MOVES, CAPTURES
+	 * or QUIET_MOVES) to a reusable list.
+	 */
+	public static void getLegalMoves(GameBoard board, int color, long from, int kind, MoveList moves)
+	{
+		int enemy = Piece.getOppositeColor(color);
+		long own = board.getPieces(color);
+		long enemies = board.getPieces(enemy);
+		long occupied = board.getOccupied();
+		long king = board.getPieces(color, Piece.KING);
+		int kingSq = Long.numberOfTrailingZeros(king);
+
+		long checkMask = Bitboard.FULL;
+		long pinned = 0;
+		if (king != 0)
+		{
+			long checkers = board.getAttackers(kingSq, enemy, occupied);
+			if (Long.bitCount(checkers) > 1)
+				checkMask = 0;
+			else if (checkers != 0)
+				checkMask = checkers | Bitboard.BETWEEN[kingSq][Long.numberOfTrailingZeros(checkers)];
+
+			/* Enemy sliders that would see the king if our pieces were gone */
+			long queens = board.getPieces(enemy, Piece.QUEEN);
+			long snipers = Bitboard.rookAttacks(kingSq, enemies) & (board.getPieces(enemy, Piece.ROOK) | queens);
+			snipers |= Bitboard.bishopAttacks(kingSq, enemies) & (board.getPieces(enemy, Piece.BISHOP) | queens);
+			for (; snipers != 0; snipers &= snipers - 1)
+			{
+				long between = Bitboard.BETWEEN[kingSq][Long.numberOfTrailingZeros(snipers)] & occupied;
+				if (Long.bitCount(between) == 1)
+					pinned |= between & own;
+			}
+		}
+
+		for (long pieces = own & from; pieces != 0; pieces &= pieces - 1)
+		{
+			int sq = Long.numberOfTrailingZeros(pieces);
+			int type = board.getPiece(sq).getType();
+			long targets;
+			if (type == Piece.KING)
+			{
+				targets = Bitboard.KING_ATTACKS[sq] & ~own;
+				if (kind == CAPTURES)
+					targets &= enemies;
+				else if (kind == QUIET_MOVES)
+					targets &= ~enemies;
+				for (; targets != 0; targets &= targets - 1)
+				{
+					int dest = Long.numberOfTrailingZeros(targets);
+					if (board.getAttackers(dest, enemy, occupied ^ king) == 0)
+						moves.add(PackedMove.create(board, sq, dest));
+				}
+				if (kind != CAPTURES)
+				{
+					int col = sq & 7, row = sq >>> 3;
+					if (canCastleLeft(board, color, col, row))
+						moves.add(PackedMove.create(board, sq, sq - 2));
+					if (canCastleRight(board, color, col, row))
+						moves.add(PackedMove.create(board, sq, sq + 2));
+				}
+				continue;
+			}
+
+			if (type == Piece.PAWN)
+			{
+				targets = Bitboard.PAWN_ATTACKS[color][sq] & enemies;
+				int step = color == Piece.WHITE ? -8 : 8;
+				int ahead = sq + step;
+				if (ahead >= 0 && ahead < 64 && (occupied & (1L << ahead)) == 0)
+				{
+					targets |= 1L << ahead;
+					if ((sq >>> 3) == (color == Piece.WHITE ? 6 : 1) && (occupied & (1L << (ahead + step))) == 0)
+						targets |= 1L << (ahead + step);
+				}
+				if (kind == CAPTURES)
+					targets &= enemies | Bitboard.ROW_0 | Bitboard.ROW_7;
+				else if (kind == QUIET_MOVES)
+					targets &= ~(enemies | Bitboard.ROW_0 | Bitboard.ROW_7);
+			} else
+			{
+				targets = Bitboard.attacks(type, color, sq, occupied) & ~own;
+				if (kind == CAPTURES)
+					targets &= enemies;
+				else if (kind == QUIET_MOVES)
+					targets &= ~enemies;
+			}
+			targets &= checkMask;
+			if ((pinned & (1L << sq)) != 0)
+				targets &= Bitboard.LINE[kingSq][sq];
+			for (; targets != 0; targets &= targets - 1)
+			{
+				moves.add(PackedMove.create(board, sq, Long.numberOfTrailingZeros(targets)));
+			}
+		}
+	}
+
+	/**
+	 * Whether a packed move, for example one from the transposition table,
+	 * is legal for the side to move. Only the moves of its piece are
+	 * generated, into the given scratch list.
+	 */
+	public static boolean isLegal(GameBoard board, int move, MoveList scratch)
+	{
+		int from = PackedMove.getFrom(move);
+		Piece piece = board.getPiece(from);
+		if (piece == null || piece.getColor() != board.getCurrentColor())
+			return false;
+		scratch.clear();
+		getLegalMoves(board, piece.getColor(), Bitboard.bit(from), ALL_MOVES, scratch);
+		return scratch.contains(move);
+	}
+
+	/* End Legal Move Generation */
+
 	/* getReachablePosition Method Groups */
 
 	/**
@@ -371,10 +539,11 @@ public class MoveHelper
 		if (!allowedCastling(board, color, col, row, false))
 			return false;
 		
+		/* The king may not castle out of, through or into check */
 		if (board.isEmpty(Position.get(col - 1, row)) && board.isEmpty(Position.get(col - 2, row)) && board.isEmpty(Position.get(col - 3, row))
-				&& !isUnderAttack(board, Position.get(col, row), Piece.getOppositeColor(color), true)
-				&& !isUnderAttack(board, Position.get(col - 1, row), Piece.getOppositeColor(color), true)
-				&& !isUnderAttack(board, Position.get(col - 2, row), Piece.getOppositeColor(color), true))
+				&& !board.isSquareAttacked(Position.get(col, row), Piece.getOppositeColor(color))
+				&& !board.isSquareAttacked(Position.get(col - 1, row), Piece.getOppositeColor(color))
+				&& !board.isSquareAttacked(Position.get(col - 2, row), Piece.getOppositeColor(color)))
 		{
 			return true;
 		} else
@@ -393,8 +562,9 @@ public class MoveHelper
 		}
 		
 		if (board.isEmpty(Position.get(col + 1, row)) && board.isEmpty(Position.get(col + 2, row))
-				&& !isUnderAttack(board, Position.get(col, row), Piece.getOppositeColor(color), true)
-				&& !isUnderAttack(board, Position.get(col + 1, row), Piece.getOppositeColor(color), true))
+				&& !board.isSquareAttacked(Position.get(col, row), Piece.getOppositeColor(color))
+				&& !board.isSquareAttacked(Position.get(col + 1, row), Piece.getOppositeColor(color))
+				&& !board.isSquareAttacked(Position.get(col + 2, row), Piece.getOppositeColor(color)))
 		{
 			return true;
 		} else
@@ -415,6 +585,10 @@ public class MoveHelper
 		if (!right && board.hasLRookMoved(color))
 			return false;
 		
+		/* The rook may have been captured without ever moving */
+		if (!Piece.get(color, Piece.ROOK).equals(board.getPiece(Position.get(right ? 7 : 0, row))))
+			return false;
+		
 		if (board.getPiece(Position.get(col, row)).getColor() == Piece.BLACK) {
 			if (row != 0)
 				return false;
@@ -482,70 +656,90 @@ public class MoveHelper
 		return position;
 	}
 
-	public static int protectedVal(GameBoard board, Position targetPos, ArrayList<Move> allPossibleMoves)
+	/* Static Exchange Evaluation */
+
+	/* Piece values for exchanges, by piece type, in pawns like the evaluation */
+	public static final int[] SEE_VALUES = { 100, 9, 5, 3, 3, 1 };
+	/* Piece types from the least to the most valuable attacker */
+	private static final int[] SEE_ORDER = { Piece.PAWN, Piece.KNIGHT, Piece.BISHOP, Piece.ROOK, Piece.QUEEN, Piece.KING };
+
+	/**
+	 * Static exchange evaluation. Plays out the captures on the destination
+	 * square of a move, each side recapturing with its least valuable
+	 * attacker and stopping when recapturing would lose material. Sliders
+	 * behind a piece that captured join the exchange (x-rays). The king only
+	 * recaptures if the square is not defended any more. Pins are ignored
+	 * after the first move.
+	 * 
+	 * @param move
+	 *            Legal packed move, usually a capture
+	 * @param threshold
+	 *            Material in SEE_VALUES units
+	 * @return whether the side making the move wins at least threshold
+	 */
+	public static boolean seeAtLeast(GameBoard board, int move, int threshold)
 	{
-		if (board.isEmpty(targetPos))
-			return 0;
-		int score = 0;
-		for (Move m : allPossibleMoves)
+		int from = PackedMove.getFrom(move);
+		int to = PackedMove.getTo(move);
+		int onSquare = SEE_VALUES[PackedMove.getPieceType(move)];
+		int swap = -threshold;
+		if (PackedMove.isCapture(move))
+			swap += SEE_VALUES[PackedMove.getCapturedType(move)];
+		if (PackedMove.isPromotion(move))
 		{
-			if (m.getDestPosition() == targetPos)
-			{
-				Piece defending = board.getPiece(m.getStartPosition());
-				Piece defended = board.getPiece(targetPos);
-				score = (defended.getType() - defending.getType());
-			}
+			swap += SEE_VALUES[Piece.QUEEN] - SEE_VALUES[Piece.PAWN];
+			onSquare = SEE_VALUES[Piece.QUEEN];
 		}
-		return score;
-	}
+		if (swap < 0)
+			return false;
+		/* Even losing the moved piece for nothing keeps the threshold */
+		swap = onSquare - swap;
+		if (swap <= 0)
+			return true;
 
-	public static int attackVal(GameBoard board, Position targetPos, ArrayList<Move> allPossibleMoves, int goodForColor)
-	{
-		if (board.isEmpty(targetPos))
-			return 0;
-		int score = 0;
-		boolean queen = false;
-		for (Move m : allPossibleMoves)
+		long occupied = board.getOccupied() ^ (1L << from);
+		long queens = board.getPieces(Piece.WHITE, Piece.QUEEN) | board.getPieces(Piece.BLACK, Piece.QUEEN);
+		long diagonal = board.getPieces(Piece.WHITE, Piece.BISHOP) | board.getPieces(Piece.BLACK, Piece.BISHOP) | queens;
+		long straight = board.getPieces(Piece.WHITE, Piece.ROOK) | board.getPieces(Piece.BLACK, Piece.ROOK) | queens;
+		long attackers = board.getAttackers(to, Piece.WHITE, occupied) | board.getAttackers(to, Piece.BLACK, occupied);
+
+		/* swap is what the side to recapture gains by recapturing */
+		int side = PackedMove.getColor(move);
+		boolean result = true;
+		while (true)
 		{
-			if (m.getDestPosition() == targetPos)
-			{
-				Piece killed = m.getKilledPiece();
-				if (killed.getType() == Piece.QUEEN)
-				{
-					queen = true;
-				}
-				Piece attacker = board.getPiece(m.getStartPosition());
-				System.out.println(killed.getType() + " " + attacker.getType());
+			side = Piece.getOppositeColor(side);
+			attackers &= occupied;
+			long own = attackers & board.getPieces(side);
+			if (own == 0)
+				break;
+			result = !result;
 
-				if (killed.getColor() != goodForColor)
-				{
-					if (queen)
-						score -= 5;
-					score = (attacker.getType() - killed.getType());
-				} else
+			int type = Piece.KING;
+			for (int t : SEE_ORDER)
+			{
+				if ((own & board.getPieces(side, t)) != 0)
 				{
-					if (queen)
-						score += 5;
-					score = (killed.getType() - attacker.getType());
+					type = t;
+					break;
 				}
 			}
-		}
-		return score;
-	}
+			if (type == Piece.KING)
+				return (attackers & ~board.getPieces(side)) != 0 ? !result : result;
 
-	public static int protectedVal(GameBoard board, Position targetPos)
-	{
-		if (board.isEmpty(targetPos))
-			return 0;
-		return protectedVal(board, targetPos, board.getAllPossibleMovesWithDefend(board.getPiece(targetPos).getColor()));
+			swap = SEE_VALUES[type] - swap;
+			if (swap < (result ? 1 : 0))
+				break;
+			occupied ^= Long.lowestOneBit(own & board.getPieces(side, type));
+			if (type == Piece.PAWN || type == Piece.BISHOP || type == Piece.QUEEN)
+				attackers |= Bitboard.bishopAttacks(to, occupied) & diagonal;
+			if (type == Piece.ROOK || type == Piece.QUEEN)
+				attackers |= Bitboard.rookAttacks(to, occupied) & straight;
+		}
+		return result;
 	}
 
-	public static int attackVal(GameBoard board, Position targetPos, int goodForColor)
-	{
-		if (board.isEmpty(targetPos))
-			return 0;
-		return attackVal(board, targetPos, board.getAllPossibleMoves(board.getPiece(targetPos).getColor()), goodForColor);
-	}
+	/* End Static Exchange Evaluation */
 
 	public static boolean isProtected(GameBoard board, Position targetPos, ArrayList<Move> allPossibleMoves)
 	{
@@ -580,11 +774,18 @@ public class MoveHelper
 
 	public static boolean isUnderAttack(GameBoard board, Position targetPos, int color)
 	{
-		return isUnderAttack(board, targetPos, board.getAllPossibleMovesWithoutValidation(color));
+		if (board.isEmpty(targetPos))
+			return false;
+		return board.isSquareAttacked(targetPos, color);
 	}
 	
 	public static boolean isUnderAttack(GameBoard board, Position targetPos, int color, boolean ignoreEKing) 
 	{
-		return isUnderAttack(board, targetPos, board.getAllPossibleMovesWithoutValidation(color, ignoreEKing));
+		if (board.isEmpty(targetPos))
+			return false;
+		long attackers = board.getAttackers(targetPos.getIndex(), color, board.getOccupied());
+		if (ignoreEKing)
+			attackers &= ~board.getPieces(color, Piece.KING);
+		return attackers != 0;
 	}
 }
@@ -0,0 +1,71 @@
+package vad;
+
+/**
+ * A reusable list of {@link PackedMove packed moves}. The search keeps one
+ * list per ply and clears it instead of allocating a new list for every
+ * node. Each move has an int score next to it for move ordering.
+ */
+public class MoveList {
+	/* More than the most legal moves of any chess position (218) */
+	public static final int CAPACITY = 256;
+
+	private final int[] moves = new int[CAPACITY];
+	private final int[] scores = new int[CAPACITY];
+	private int size;
+
+	public void clear() {
+		size = 0;
+	}
+
+	public void add(int move) {
+		moves[size] = move;
+		scores[size++] = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int get(int i) {
+		return moves[i];
+	}
+
+	public int getScore(int i) {
+		return scores[i];
+	}
+
+	public void setScore(int i, int score) {
+		scores[i] = score;
+	}
+
+	public boolean contains(int move) {
+		for (int i = 0; i < size; i++)
+			if (moves[i] == move)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Swap the highest scored move from index i onwards into index i, so
+	 * moves can be picked best first without sorting the whole list.
+	 */
+	public int pickBest(int i) {
+		int best = i;
+		for (int j = i + 1; j < size; j++)
+			if (scores[j] > scores[best])
+				best = j;
+		if (best != i) {
+			int move = moves[i];
+			moves[i] = moves[best];
+			moves[best] = move;
+			int score = scores[i];
+			scores[i] = scores[best];
+			scores[best] = score;
+		}
+		return moves[i];
+	}
+}
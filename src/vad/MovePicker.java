@@ -0,0 +1,173 @@
+package vad;
+
+/**
+ * Hands out the moves of a node one at a time, best first, generating them
+ * in stages: the hash move, captures and promotions that don't lose
+ * material ordered by most valuable victim / least valuable attacker, the
+ * killer moves, the quiet moves ordered by their history score, and finally
+ * the captures that lose material by static exchange evaluation. A stage is
+ * only generated once the moves of the previous stage failed to cut off, so
+ * a node refuted early never generates its quiet moves.
+ *
+ * The search keeps one picker per ply and reuses it for every node of that
+ * ply.
+ */
+public class MovePicker {
+	static final int HASH_MOVE = 0;
+	static final int GENERATE_CAPTURES = 1;
+	static final int CAPTURES = 2;
+	static final int KILLERS = 3;
+	static final int GENERATE_QUIET_MOVES = 4;
+	static final int QUIET_MOVES = 5;
+	static final int BAD_CAPTURES = 6;
+	static final int DONE = 7;
+
+	/* Piece values for ordering captures, by piece type */
+	static final int[] ORDER_VALUES = { 10, 9, 5, 3, 3, 1 };
+
+	private final MoveList moves = new MoveList();
+	private final MoveList badCaptures = new MoveList();
+	private final MoveList scratch = new MoveList();
+
+	private GameBoard board;
+	private int color;
+	private int hashMove;
+	private int killer1;
+	private int killer2;
+	private int[][] history;
+	private int stage;
+	private int index;
+	private boolean capturesOnly;
+
+	/**
+	 * Start picking the moves of the side to move.
+	 *
+	 * @param hashMove
+	 *            Legal move to search first, NONE if there is none
+	 * @param killers
+	 *            The quiet killer moves of the ply, need not be legal here
+	 * @param history
+	 *            History scores of the side to move, by start and destination
+	 */
+	public void init(GameBoard board, int hashMove, int[] killers, int[][] history) {
+		this.board = board;
+		this.color = board.getCurrentColor();
+		this.hashMove = hashMove;
+		this.killer1 = killers[0];
+		this.killer2 = killers[1];
+		this.history = history;
+		this.capturesOnly = false;
+		this.stage = HASH_MOVE;
+	}
+
+	/**
+	 * Start picking the captures and promotions of the side to move only,
+	 * as searched by quiescence search. Captures that lose material are
+	 * skipped.
+	 */
+	public void initCaptures(GameBoard board) {
+		this.board = board;
+		this.color = board.getCurrentColor();
+		this.hashMove = PackedMove.NONE;
+		this.capturesOnly = true;
+		this.stage = GENERATE_CAPTURES;
+	}
+
+	/**
+	 * The next move to search, NONE when all moves were picked.
+	 */
+	public int next() {
+		/* Each stage returns a move or moves on to the next stage */
+		while (true) {
+			switch (stage) {
+			case HASH_MOVE:
+				stage = GENERATE_CAPTURES;
+				if (hashMove != PackedMove.NONE)
+					return hashMove;
+				continue;
+			case GENERATE_CAPTURES:
+				moves.clear();
+				badCaptures.clear();
+				scratch.clear();
+				MoveHelper.getLegalMoves(board, color, Bitboard.FULL, MoveHelper.CAPTURES, scratch);
+				for (int i = 0; i < scratch.size(); i++) {
+					int move = scratch.get(i);
+					if (MoveHelper.seeAtLeast(board, move, 0)) {
+						moves.add(move);
+						moves.setScore(moves.size() - 1, mvvLva(move));
+					} else if (!capturesOnly) {
+						badCaptures.add(move);
+						badCaptures.setScore(badCaptures.size() - 1, mvvLva(move));
+					}
+				}
+				index = 0;
+				stage = CAPTURES;
+				continue;
+			case CAPTURES:
+				while (index < moves.size()) {
+					int move = moves.pickBest(index++);
+					if (move != hashMove)
+						return move;
+				}
+				if (capturesOnly) {
+					stage = DONE;
+					return PackedMove.NONE;
+				}
+				stage = KILLERS;
+				index = 0;
+				continue;
+			case KILLERS:
+				while (index < 2) {
+					int killer = index++ == 0 ? killer1 : killer2;
+					if (killer != PackedMove.NONE && killer != hashMove && !PackedMove.isCapture(killer)
+							&& !PackedMove.isPromotion(killer) && MoveHelper.isLegal(board, killer, scratch))
+						return killer;
+				}
+				stage = GENERATE_QUIET_MOVES;
+				continue;
+			case GENERATE_QUIET_MOVES:
+				moves.clear();
+				MoveHelper.getLegalMoves(board, color, Bitboard.FULL, MoveHelper.QUIET_MOVES, moves);
+				for (int i = 0; i < moves.size(); i++) {
+					int move = moves.get(i);
+					moves.setScore(i, history[PackedMove.getFrom(move)][PackedMove.getTo(move)]);
+				}
+				index = 0;
+				stage = QUIET_MOVES;
+				continue;
+			case QUIET_MOVES:
+				while (index < moves.size()) {
+					int move = moves.pickBest(index++);
+					if (move != hashMove && move != killer1 && move != killer2)
+						return move;
+				}
+				stage = BAD_CAPTURES;
+				index = 0;
+				continue;
+			case BAD_CAPTURES:
+				while (index < badCaptures.size()) {
+					int move = badCaptures.pickBest(index++);
+					if (move != hashMove)
+						return move;
+				}
+				stage = DONE;
+				continue;
+			default:
+				return PackedMove.NONE;
+			}
+		}
+	}
+
+	/**
+	 * Most valuable victim first, and the least valuable attacker first among
+	 * captures of the same victim. A promotion counts as capturing a queen.
+	 */
+	static int mvvLva(int move) {
+		int gain = 0;
+		if (PackedMove.isCapture(move))
+			gain += ORDER_VALUES[PackedMove.getCapturedType(move)];
+		if (PackedMove.isPromotion(move))
+			gain += ORDER_VALUES[Piece.QUEEN];
+		return gain * 16 - ORDER_VALUES[PackedMove.getPieceType(move)];
+	}
+}
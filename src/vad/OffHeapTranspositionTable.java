@@ -0,0 +1,56 @@
+package vad;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Transposition table kept in native memory instead of the Java heap, so
+ * its size neither adds to the heap nor to garbage collection pauses. It is
+ * made of direct buffers of at most 1 GB each and can grow far beyond the 8
+ * GB of the heap table. Entries, replacement and the lockless XOR checked
+ * writes are those of {@link TranspositionTable}.
+ *
+ * Direct memory is limited to the maximum heap size unless the JVM is
+ * started with a larger -XX:MaxDirectMemorySize.
+ */
+public class OffHeapTranspositionTable extends TranspositionTable {
+	/* Longs per buffer, 1 GB */
+	static final int CHUNK_SHIFT = 27;
+	static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+	/* 128 GB */
+	static final long MAX_BUCKETS = 1L << 32;
+
+	private final LongBuffer[] chunks;
+
+	public OffHeapTranspositionTable(int sizeMB) {
+		this(buckets(sizeMB, MAX_BUCKETS));
+	}
+
+	private OffHeapTranspositionTable(long buckets) {
+		super(buckets, false);
+		long longs = buckets * LONGS_PER_BUCKET;
+		chunks = new LongBuffer[(int) ((longs + CHUNK_MASK) >>> CHUNK_SHIFT)];
+		for (int i = 0; i < chunks.length; i++) {
+			long size = Math.min(longs - ((long) i << CHUNK_SHIFT), 1L << CHUNK_SHIFT);
+			chunks[i] = ByteBuffer.allocateDirect((int) size * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+		}
+	}
+
+	@Override
+	long read(long index) {
+		return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+	}
+
+	@Override
+	void write(long index, long value) {
+		chunks[(int) (index >>> CHUNK_SHIFT)].put((int) (index & CHUNK_MASK), value);
+	}
+
+	@Override
+	void clearEntries() {
+		for (LongBuffer chunk : chunks)
+			for (int i = 0; i < chunk.capacity(); i++)
+				chunk.put(i, 0);
+	}
+}
@@ -0,0 +1,145 @@
+package vad;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Opening book file written by {@link BookBuilder}, read through a memory
+ * mapping. Entries are sorted by position key, so a position's moves are
+ * found by binary search without reading the file into memory.
+ *
+ * <pre>
+ * header: magic (8) | version (4) | entries (4) | start position key (8) | unused (8)
+ * entry:  position key (8) | move start and destination (2) | games (2) | points (4)
+ * </pre>
+ *
+ * Points are 2 for each win and 1 for each draw of the side that played the
+ * move. A move played in more than 65535 games is stored as 65535 games,
+ * with its points scaled by the same factor. The key of the starting
+ * position ties the file to the Zobrist keys it was built with. The moves
+ * of a position are stored most played first.
+ */
+public class OpeningBook {
+	static final long MAGIC = 0x564144424F4F4B31L;
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 32;
+	static final int ENTRY_BYTES = 16;
+	/* Moves scoring less than this share of the points are not played */
+	public static final double MIN_SCORE = 0.35;
+
+	private final MappedByteBuffer map;
+	private final int entries;
+
+	private OpeningBook(MappedByteBuffer map) {
+		this.map = map;
+		this.entries = map.getInt(12);
+	}
+
+	/**
+	 * Map a book file.
+	 *
+	 * @throws IOException
+	 *             if it can't be read or is not a book built for this
+	 *             version and these Zobrist keys
+	 */
+	public static OpeningBook open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES)
+				throw new IOException("Not an opening book: " + file);
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (map.getLong(0) != MAGIC || map.getInt(8) != VERSION)
+				throw new IOException("Not an opening book: " + file);
+			if (map.getLong(16) != new GameBoard().getZobristKey())
+				throw new IOException("Opening book built with other position keys: " + file);
+			if (channel.size() != HEADER_BYTES + (long) map.getInt(12) * ENTRY_BYTES)
+				throw new IOException("Truncated opening book: " + file);
+			return new OpeningBook(map);
+		}
+	}
+
+	public int getNumEntries() {
+		return entries;
+	}
+
+	private long key(int i) {
+		return map.getLong(HEADER_BYTES + i * ENTRY_BYTES);
+	}
+
+	/*
+	 * Index of the first entry of the key, or where it would be
+	 */
+	private int find(long key) {
+		int lo = 0, hi = entries;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (key(mid) < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Number of book moves for the side to move.
+	 */
+	public int getNumMoves(GameBoard board) {
+		long key = board.getZobristKey();
+		int count = 0;
+		for (int i = find(key); i < entries && key(i) == key; i++)
+			count++;
+		return count;
+	}
+
+	/**
+	 * A book move for the side to move, chosen at random with the
+	 * probability of the points it scored, so moves played more often and
+	 * with better results are preferred. Moves scoring below MIN_SCORE are
+	 * never chosen. NONE if the position is not in the book or none of its
+	 * book moves is playable.
+	 */
+	public int probe(GameBoard board, Random random) {
+		long key = board.getZobristKey();
+		int first = find(key);
+		long total = 0;
+		int end = first;
+		for (; end < entries && key(end) == key; end++)
+			total += weight(end);
+		if (total == 0)
+			return PackedMove.NONE;
+
+		long pick = (long) (random.nextDouble() * total);
+		MoveList scratch = new MoveList();
+		for (int i = first; i < end; i++) {
+			pick -= weight(i);
+			if (pick < 0) {
+				int move = PackedMove.fromTo(board, map.getShort(HEADER_BYTES + i * ENTRY_BYTES + 8));
+				/* A key collision can give a move of another position */
+				if (move != PackedMove.NONE && MoveHelper.isLegal(board, move, scratch))
+					return move;
+				return PackedMove.NONE;
+			}
+		}
+		return PackedMove.NONE;
+	}
+
+	private int games(int i) {
+		return map.getChar(HEADER_BYTES + i * ENTRY_BYTES + 10);
+	}
+
+	private int points(int i) {
+		return map.getInt(HEADER_BYTES + i * ENTRY_BYTES + 12);
+	}
+
+	/*
+	 * Chance of playing a move: its points, none if it scored too little
+	 */
+	private long weight(int i) {
+		int points = points(i);
+		return points < MIN_SCORE * 2 * games(i) ? 0 : points;
+	}
+}
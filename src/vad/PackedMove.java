@@ -0,0 +1,226 @@
+package vad;
+
+/**
+ * Moves encoded in a single int, so the search can generate, store and
+ * compare moves without allocating. {@link Move} is the object view of the
+ * same data used by the GUI and the network code.
+ *
+ * <pre>
+ * bits  0-5:  start square
+ * bits  6-11: destination square
+ * bits 12-14: type of the moved piece
+ * bit  15:    color of the moved piece
+ * bits 16-18: type of the captured piece
+ * bit  19:    color of the captured piece
+ * bit  20:    set if the move captures
+ * bits 21-26: Move flags (KING_MOVED_FLAG ... KILLED_R_ROOK_FLAG)
+ * </pre>
+ *
+ * Squares use the Bitboard order. The low 12 bits alone identify a move in a
+ * position, which is what the transposition table stores. 0 is never a
+ * legal move and stands for no move.
+ */
+public class PackedMove {
+	public static final int NONE = 0;
+
+	static final int TO_SHIFT = 6;
+	static final int PIECE_SHIFT = 12;
+	static final int COLOR_SHIFT = 15;
+	static final int CAPTURED_SHIFT = 16;
+	static final int CAPTURED_COLOR_SHIFT = 19;
+	static final int CAPTURE_BIT = 1 << 20;
+	static final int FLAGS_SHIFT = 21;
+	static final int FROM_TO_MASK = 0xFFF;
+
+	/**
+	 * Encode the move of the piece on start to dest, deriving the flags from
+	 * the board the same way as {@link Move#Move(GameBoard, Position, Position)}.
+	 */
+	public static int create(GameBoard b, int start, int dest) {
+		Piece piece = b.getPiece(start);
+		Piece killed = b.getPiece(dest);
+		int color = piece.getColor();
+		int type = piece.getType();
+		int move = start | dest << TO_SHIFT | type << PIECE_SHIFT | color << COLOR_SHIFT;
+
+		int flags = 0;
+		if (type == Piece.KING && !b.hasKingMoved(color)) {
+			flags |= 1 << Move.KING_MOVED_FLAG;
+		}
+		if (type == Piece.ROOK && start >>> 3 == getHomeRow(color)) {
+			if ((start & 7) == 0 && !b.hasLRookMoved(color)) {
+				flags |= 1 << Move.L_ROOK_FLAG;
+			} else if ((start & 7) == 7 && !b.hasRRookMoved(color)) {
+				flags |= 1 << Move.R_ROOK_FLAG;
+			}
+		}
+		if (killed != null) {
+			move |= CAPTURE_BIT | killed.getType() << CAPTURED_SHIFT | killed.getColor() << CAPTURED_COLOR_SHIFT;
+			if (killed.getType() == Piece.ROOK && dest >>> 3 == getHomeRow(killed.getColor())) {
+				if ((dest & 7) == 0 && !b.hasLRookMoved(killed.getColor())) {
+					flags |= 1 << Move.KILLED_L_ROOK_FLAG;
+				} else if ((dest & 7) == 7 && !b.hasRRookMoved(killed.getColor())) {
+					flags |= 1 << Move.KILLED_R_ROOK_FLAG;
+				}
+			}
+		}
+		if ((dest >>> 3 == 0 || dest >>> 3 == 7) && type == Piece.PAWN) {
+			flags |= 1 << Move.PAWN_PROMOTION_FLAG;
+		}
+		return move | flags << FLAGS_SHIFT;
+	}
+
+	/**
+	 * Rebuild a move from its start and destination squares, as stored by the
+	 * transposition table. Returns NONE if the side to move has no piece on
+	 * the start square or the destination holds one of its own pieces, which
+	 * can happen on a key collision. The move is not checked for legality.
+	 */
+	public static int fromTo(GameBoard b, int fromTo) {
+		if (fromTo == NONE)
+			return NONE;
+		int start = fromTo & 0x3F;
+		int dest = (fromTo >>> TO_SHIFT) & 0x3F;
+		Piece piece = b.getPiece(start);
+		if (piece == null || piece.getColor() != b.getCurrentColor())
+			return NONE;
+		Piece killed = b.getPiece(dest);
+		if (killed != null && killed.getColor() == piece.getColor())
+			return NONE;
+		return create(b, start, dest);
+	}
+
+	/*
+	 * Row of the king and rooks at the start of the game
+	 */
+	private static int getHomeRow(int color) {
+		return color == Piece.WHITE ? 7 : 0;
+	}
+
+	public static int getFrom(int move) {
+		return move & 0x3F;
+	}
+
+	public static int getTo(int move) {
+		return (move >>> TO_SHIFT) & 0x3F;
+	}
+
+	/**
+	 * Start and destination squares only, see {@link #fromTo(GameBoard, int)}.
+	 */
+	public static int getFromTo(int move) {
+		return move & FROM_TO_MASK;
+	}
+
+	public static int getPieceType(int move) {
+		return (move >>> PIECE_SHIFT) & 7;
+	}
+
+	public static int getColor(int move) {
+		return (move >>> COLOR_SHIFT) & 1;
+	}
+
+	public static boolean isCapture(int move) {
+		return (move & CAPTURE_BIT) != 0;
+	}
+
+	/**
+	 * Type of the captured piece, only meaningful if {@link #isCapture(int)}.
+	 */
+	public static int getCapturedType(int move) {
+		return (move >>> CAPTURED_SHIFT) & 7;
+	}
+
+	public static int getCapturedColor(int move) {
+		return (move >>> CAPTURED_COLOR_SHIFT) & 1;
+	}
+
+	public static int getFlags(int move) {
+		return move >>> FLAGS_SHIFT;
+	}
+
+	public static boolean hasFlag(int move, int flag) {
+		return (move & (1 << (FLAGS_SHIFT + flag))) != 0;
+	}
+
+	public static boolean isPromotion(int move) {
+		return hasFlag(move, Move.PAWN_PROMOTION_FLAG);
+	}
+
+	/* SAN piece letters, indexed by piece type */
+	private static final String SAN_PIECES = "KQRNB";
+
+	/**
+	 * Parse a move in Standard Algebraic Notation (e4, Nbd7, exd5, O-O,
+	 * e8=Q+) for the side to move. Returns NONE unless it names exactly one
+	 * legal move, so underpromotions and en passant, which the engine
+	 * doesn't play, give NONE too.
+	 */
+	public static int fromSan(GameBoard b, String san) {
+		String s = san.replaceAll("[+#!?]+$", "");
+		MoveList moves = new MoveList();
+		b.getAllPossibleMoves(b.getCurrentColor(), moves);
+		if (s.equals("O-O") || s.equals("0-0") || s.equals("O-O-O") || s.equals("0-0-0")) {
+			int cols = s.length() > 3 ? -2 : 2;
+			for (int i = 0; i < moves.size(); i++) {
+				int m = moves.get(i);
+				if (getPieceType(m) == Piece.KING && getTo(m) - getFrom(m) == cols)
+					return m;
+			}
+			return NONE;
+		}
+
+		int type = s.isEmpty() ? -1 : SAN_PIECES.indexOf(s.charAt(0));
+		int start = type < 0 ? 0 : 1;
+		if (type < 0)
+			type = Piece.PAWN;
+		int promotion = s.indexOf('=');
+		if (promotion >= 0) {
+			if (!s.substring(promotion + 1).equals("Q"))
+				return NONE;
+			s = s.substring(0, promotion);
+		} else if (type == Piece.PAWN && s.length() > 2 && "QRBN".indexOf(s.charAt(s.length() - 1)) >= 0) {
+			if (s.charAt(s.length() - 1) != 'Q')
+				return NONE;
+			s = s.substring(0, s.length() - 1);
+		}
+		if (s.length() < start + 2)
+			return NONE;
+
+		int dest;
+		try {
+			dest = Position.fromAlgebraic(s.substring(s.length() - 2)).index;
+		} catch (IllegalArgumentException e) {
+			return NONE;
+		}
+		int fromCol = -1, fromRow = -1;
+		for (char c : s.substring(start, s.length() - 2).toCharArray()) {
+			if (c >= 'a' && c <= 'h')
+				fromCol = c - 'a';
+			else if (c >= '1' && c <= '8')
+				fromRow = '8' - c;
+			else if (c != 'x')
+				return NONE;
+		}
+
+		int found = NONE;
+		for (int i = 0; i < moves.size(); i++) {
+			int m = moves.get(i);
+			if (getPieceType(m) != type || getTo(m) != dest)
+				continue;
+			if ((fromCol >= 0 && (getFrom(m) & 7) != fromCol) || (fromRow >= 0 && getFrom(m) >>> 3 != fromRow))
+				continue;
+			if (found != NONE)
+				return NONE;
+			found = m;
+		}
+		return found;
+	}
+
+	public static String toAlgebraic(int move) {
+		if (move == NONE)
+			return "none";
+		return Position.get(getFrom(move)).toAlgebraic() + Position.get(getTo(move)).toAlgebraic()
+				+ (isPromotion(move) ? "q" : "");
+	}
+}
@@ -0,0 +1,195 @@
+package vad;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Perft counts the leaf nodes of the legal move tree to a fixed depth. It is
+ * the yardstick for the move generator: the counts must match known values
+ * and the node rate measures generator throughput.
+ *
+ * Usage: Perft [depth] [single|divide|parallel|hashed] [FEN]
+ */
+public class Perft {
+	public static final int DEFAULT_HASH_MB = 64;
+
+	/**
+	 * Count the leaves of the move tree below the current position.
+	 */
+	public static long perft(GameBoard board, int depth) {
+		return perft(board, depth, null);
+	}
+
+	/**
+	 * Count the leaves, reusing subtree counts from a hash table if given.
+	 */
+	public static long perft(GameBoard board, int depth, HashTable table) {
+		MoveList[] lists = new MoveList[Math.max(depth, 1)];
+		for (int i = 0; i < lists.length; i++)
+			lists[i] = new MoveList();
+		return perft(board, depth, table, lists);
+	}
+
+	/*
+	 * Moves are generated into one reusable list per remaining depth
+	 */
+	private static long perft(GameBoard board, int depth, HashTable table, MoveList[] lists) {
+		if (depth == 0)
+			return 1;
+		if (table != null && depth > 1) {
+			long cached = table.get(board.getZobristKey(), depth);
+			if (cached >= 0)
+				return cached;
+		}
+		MoveList moves = lists[depth - 1];
+		board.getAllPossibleMoves(board.currentColor, moves);
+		if (depth == 1)
+			return moves.size();
+		long nodes = 0;
+		for (int i = 0; i < moves.size(); i++) {
+			int m = moves.get(i);
+			board.apply(m);
+			nodes += perft(board, depth - 1, table, lists);
+			board.undo(m);
+		}
+		if (table != null)
+			table.put(board.getZobristKey(), depth, nodes);
+		return nodes;
+	}
+
+	/**
+	 * Leaf counts below every root move, one after the other.
+	 */
+	public static Map<Move, Long> divide(GameBoard board, int depth, HashTable table) {
+		Map<Move, Long> counts = new LinkedHashMap<>();
+		for (Move m : board.getAllPossibleMoves(board.currentColor)) {
+			board.apply(m);
+			counts.put(m, perft(board, depth - 1, table));
+			board.undo(m);
+		}
+		return counts;
+	}
+
+	/**
+	 * Leaf counts below every root move, each root move searched as a fork
+	 * join task on its own copy of the board. A hash table is shared by all
+	 * tasks.
+	 */
+	public static Map<Move, Long> parallelDivide(GameBoard board, int depth, HashTable table, ForkJoinPool pool) {
+		ArrayList<Move> moves = board.getAllPossibleMoves(board.currentColor);
+		ArrayList<DivideTask> tasks = new ArrayList<>();
+		for (Move m : moves)
+			tasks.add(new DivideTask(board, m, depth - 1, table));
+		return pool.invoke(new RecursiveTask<Map<Move, Long>>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected Map<Move, Long> compute() {
+				invokeAll(tasks);
+				Map<Move, Long> counts = new LinkedHashMap<>();
+				for (DivideTask t : tasks)
+					counts.put(t.move, t.join());
+				return counts;
+			}
+		});
+	}
+
+	private static class DivideTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+
+		final GameBoard board;
+		final Move move;
+		final int depth;
+		final HashTable table;
+
+		DivideTask(GameBoard board, Move move, int depth, HashTable table) {
+			this.board = board.copy();
+			this.move = move;
+			this.depth = depth;
+			this.table = table;
+		}
+
+		@Override
+		protected Long compute() {
+			board.apply(move);
+			return perft(board, depth, table);
+		}
+	}
+
+	/**
+	 * Subtree counts by position key and depth. Entries are stored as
+	 * key ^ value next to the value, so a torn write by two threads reads as a
+	 * miss instead of a wrong count.
+	 */
+	public static class HashTable {
+		private final long[] table;
+		private final int mask;
+
+		public HashTable(int sizeMB) {
+			int entries = Integer.highestOneBit((int) Math.min(1 << 30, ((long) sizeMB << 20) / 16));
+			table = new long[entries * 2];
+			mask = entries - 1;
+		}
+
+		long get(long key, int depth) {
+			int i = (int) (key & mask) * 2;
+			long value = table[i + 1];
+			if ((table[i] ^ value) == key && (value & 0xFF) == depth)
+				return value >>> 8;
+			return -1;
+		}
+
+		void put(long key, int depth, long nodes) {
+			int i = (int) (key & mask) * 2;
+			long value = (nodes << 8) | depth;
+			table[i] = key ^ value;
+			table[i + 1] = value;
+		}
+	}
+
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		String mode = args.length > 1 ? args[1] : "parallel";
+		String fen = GameBoard.START_FEN;
+		if (args.length > 2) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 2; i < args.length; i++)
+				sb.append(args[i]).append(' ');
+			fen = sb.toString();
+		}
+		GameBoard board = GameBoard.fromFEN(fen);
+
+		long start = System.nanoTime();
+		long nodes;
+		Map<Move, Long> counts = null;
+		switch (mode) {
+		case "single":
+			nodes = perft(board, depth);
+			break;
+		case "divide":
+			counts = divide(board, depth, null);
+			nodes = 0;
+			break;
+		case "hashed":
+			counts = parallelDivide(board, depth, new HashTable(DEFAULT_HASH_MB), ForkJoinPool.commonPool());
+			nodes = 0;
+			break;
+		default:
+			counts = parallelDivide(board, depth, null, ForkJoinPool.commonPool());
+			nodes = 0;
+		}
+		long time = System.nanoTime() - start;
+
+		if (counts != null) {
+			for (Map.Entry<Move, Long> e : counts.entrySet()) {
+				System.out.println(e.getKey().toAlgebraic() + ": " + e.getValue());
+				nodes += e.getValue();
+			}
+		}
+		System.out.format("perft(%d) = %d in %.3f s, %.0f nodes/s (%s)\n", depth, nodes, time / 1e9,
+				nodes / (time / 1e9), mode);
+	}
+}
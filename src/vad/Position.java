@@ -21,15 +21,36 @@ public class Position implements Serializable {
 		return positions[col][row];
 	}
 
+	/**
+	 * Get a position by its square index, row * 8 + col.
+	 */
+	public static Position get(int index) {
+		return allPositions[index];
+	}
+
+	/**
+	 * Get a position from algebraic notation such as "e2". White's first rank
+	 * is row 7 and file a is column 0.
+	 */
+	public static Position fromAlgebraic(String square) {
+		int col = square.charAt(0) - 'a';
+		int row = '8' - square.charAt(1);
+		if (col < 0 || col > 7 || row < 0 || row > 7)
+			throw new IllegalArgumentException("Invalid square " + square);
+		return get(col, row);
+	}
+
 	public static Position[] all() {
 		return allPositions;
 	}
 
 	int col, row;
+	int index;
 
 	private Position(int col, int row) {
 		this.col = col;
 		this.row = row;
+		this.index = row * 8 + col;
 	}
 
 	public int getColumn() {
@@ -40,6 +61,14 @@ public class Position implements Serializable {
 		return row;
 	}
 
+	public int getIndex() {
+		return index;
+	}
+
+	public String toAlgebraic() {
+		return "" + (char) ('a' + col) + (char) ('8' - row);
+	}
+
 	@Override
 	public String toString() {
 		return "[" + col + ", " + row + "]";
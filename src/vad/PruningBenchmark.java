@@ -0,0 +1,50 @@
+package vad;
+
+/**
+ * Measures what the selective search saves. Every position of
+ * {@link SearchBenchmark#POSITIONS} is searched to a fixed depth with all
+ * pruning on, then with late move reductions off and with null move pruning
+ * off, and the nodes saved by each feature are reported.
+ *
+ * Usage: PruningBenchmark [depth] [hash MB]
+ */
+public class PruningBenchmark {
+	private static final String[] CONFIGS = { "all on", "no LMR", "no null move" };
+
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+		int hashMB = args.length > 1 ? Integer.parseInt(args[1]) : TranspositionTable.DEFAULT_SIZE_MB;
+
+		long[] nodes = new long[CONFIGS.length];
+		long[] time = new long[CONFIGS.length];
+		long reduced = 0, reSearched = 0;
+		for (int c = 0; c < CONFIGS.length; c++) {
+			for (String moves : SearchBenchmark.POSITIONS) {
+				GameBoard board = SearchBenchmark.playMoves(moves);
+				AIPlayer player = new AIPlayer(board.getCurrentColor(), 0, hashMB, false);
+				player.setTimeManager(TimeManager.fixedDepth(depth));
+				player.setLateMoveReductions(c != 1);
+				player.setNullMovePruning(c != 2);
+				player.initRows(board);
+				long start = System.nanoTime();
+				player.getBestMove(board, depth);
+				time[c] += System.nanoTime() - start;
+				nodes[c] += player.totalSearchedNodes;
+				if (c == 0) {
+					reduced += player.reducedMoves;
+					reSearched += player.reSearches;
+				}
+				player.shutdown();
+			}
+		}
+
+		System.out.println();
+		System.out.format("Depth %d, reduced moves: %d, %.1f%% searched again\n", depth, reduced,
+				reduced == 0 ? 0.0 : 100.0 * reSearched / reduced);
+		System.out.format("%14s %14s %10s %14s\n", "", "nodes", "seconds", "saved by it");
+		for (int c = 0; c < CONFIGS.length; c++)
+			System.out.format("%14s %14d %10.2f %14s\n", CONFIGS[c], nodes[c], time[c] / 1e9,
+					c == 0 ? "" : String.format("%d (%.1f%%)", nodes[c] - nodes[0],
+							100.0 * (nodes[c] - nodes[0]) / nodes[c]));
+	}
+}
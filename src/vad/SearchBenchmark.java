@@ -0,0 +1,75 @@
+package vad;
+
+/**
+ * Measures how the search scales with the number of threads. Every position
+ * is searched for a fixed time with 1, 2, 4, 8 and 16 threads (or the counts
+ * given on the command line) and the completed depth, node rate and share of
+ * cutoffs on the first move are reported.
+ *
+ * Usage: SearchBenchmark [seconds per position] [hash MB] [thread counts...]
+ */
+public class SearchBenchmark {
+	public static final int[] DEFAULT_THREADS = { 1, 2, 4, 8, 16 };
+
+	/* Positions given as moves from the starting position */
+	public static final String[] POSITIONS = {
+			"",
+			"e2e4 e7e5 g1f3 b8c6 f1c4 f8c5",
+			"d2d4 d7d5 c2c4 e7e6 b1c3 g8f6 c1g5 f8e7",
+			"e2e4 c7c5 g1f3 d7d6 d2d4 c5d4 f3d4 g8f6 b1c3 a7a6",
+			"e2e4 e7e5 g1f3 b8c6 f1b5 a7a6 b5a4 g8f6 e1g1 f8e7 f1e1 b7b5 a4b3 d7d6" };
+
+	public static GameBoard playMoves(String moves) {
+		GameBoard board = new GameBoard();
+		for (String m : moves.trim().split("\\s+")) {
+			if (m.isEmpty())
+				continue;
+			board.apply(new Move(board, Position.fromAlgebraic(m.substring(0, 2)),
+					Position.fromAlgebraic(m.substring(2, 4))));
+		}
+		return board;
+	}
+
+	public static void main(String[] args) {
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 5.0;
+		int hashMB = args.length > 1 ? Integer.parseInt(args[1]) : TranspositionTable.DEFAULT_SIZE_MB;
+		int[] threadCounts = DEFAULT_THREADS;
+		if (args.length > 2) {
+			threadCounts = new int[args.length - 2];
+			for (int i = 2; i < args.length; i++)
+				threadCounts[i - 2] = Integer.parseInt(args[i]);
+		}
+
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%8s %10s %14s %14s %8s %10s\n", "threads", "avg depth", "nodes", "nodes/s", "speedup",
+				"1st cut %"));
+		double baseRate = 0;
+		for (int threads : threadCounts) {
+			long nodes = 0;
+			long time = 0;
+			int depthSum = 0;
+			long cutoffs = 0, firstMoveCutoffs = 0;
+			for (String moves : POSITIONS) {
+				GameBoard board = playMoves(moves);
+				AIPlayer player = new AIPlayer(board.getCurrentColor(), seconds, hashMB, false);
+				player.setNumThreads(threads);
+				long start = System.nanoTime();
+				player.makeMove(board);
+				time += System.nanoTime() - start;
+				nodes += player.totalSearchedNodes;
+				depthSum += player.getCompletedDepth();
+				cutoffs += player.cutoffs;
+				firstMoveCutoffs += player.firstMoveCutoffs;
+				player.shutdown();
+			}
+			double rate = nodes / (time / 1e9);
+			if (baseRate == 0)
+				baseRate = rate;
+			report.append(String.format("%8d %10.2f %14d %14.0f %8.2f %10.1f\n", threads,
+					depthSum / (double) POSITIONS.length, nodes, rate, rate / baseRate,
+					cutoffs == 0 ? 0.0 : 100.0 * firstMoveCutoffs / cutoffs));
+		}
+		System.out.println();
+		System.out.print(report);
+	}
+}
@@ -0,0 +1,393 @@
+package vad;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Endgame tablebase of one material set, such as KQK or KBNK: the result
+ * and distance to mate of every placement of its pieces with either side to
+ * move. Written by {@link TablebaseGenerator} and read through a memory
+ * mapping.
+ *
+ * <pre>
+ * header: magic (8) | version (4) | positions per side (4) | material (8, ASCII)
+ * values: one byte per position, all with black to move, then white to move
+ * </pre>
+ *
+ * A value of 0 is a draw, n &gt; 0 means the side to move mates in n plies
+ * and n &lt; 0 that it is mated in -n - 1 plies (-1 is checkmate). Impossible
+ * placements are stored as draws.
+ *
+ * Positions are indexed by a perfect hash of the piece squares. The white
+ * king is brought into a canonical region by a symmetry of the board: the 10
+ * squares of a triangle of one quarter without pawns, where the board can be
+ * mirrored and turned, and the 32 squares of half the board with pawns,
+ * which may only be mirrored left to right. The index is the king's square
+ * in that region followed by the square of every other piece in base 64, in
+ * the order of the material name. Pieces of the same kind come in any
+ * order, so such positions have several equal entries.
+ *
+ * The tables follow the rules of this engine: pawns promote to queens only
+ * and there is no en passant. Castling rights are not part of the index.
+ */
+public class Tablebase {
+	static final long MAGIC = 0x5641445F54424153L;
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 24;
+	public static final int MAX_PIECES = 4;
+
+	public static final int DRAW = 0;
+	/* Not in the tables, also the value of positions not solved yet */
+	public static final int UNKNOWN = Byte.MIN_VALUE;
+	/* Longest distance to mate a value can hold */
+	public static final int MAX_PLIES = 126;
+
+	/* Piece letters of material names, strongest first */
+	static final String LETTERS = "KQRBNP";
+	private static final int[] LETTER_TYPES = { Piece.KING, Piece.QUEEN, Piece.ROOK, Piece.BISHOP, Piece.KNIGHT,
+			Piece.PAWN };
+	private static final int[] LETTER_VALUES = { 0, 9, 5, 3, 3, 1 };
+
+	/* Square under each of the 8 symmetries: bit 0 mirrors columns, bit 1 rows, bit 2 swaps them */
+	static final int[][] TRANSFORM = new int[8][64];
+	/* Canonical squares of the white king, without and with pawns */
+	static final int[][] KING_SQUARES = { new int[10], new int[32] };
+	/* Index of the white king in KING_SQUARES and the symmetry taking it there */
+	private static final int[][] KING_SLOT = new int[2][64];
+	private static final int[][] KING_TRANSFORM = new int[2][64];
+
+	static {
+		for (int t = 0; t < 8; t++) {
+			for (int sq = 0; sq < 64; sq++) {
+				int row = sq >>> 3, col = sq & 7;
+				if ((t & 1) != 0)
+					col = 7 - col;
+				if ((t & 2) != 0)
+					row = 7 - row;
+				TRANSFORM[t][sq] = (t & 4) != 0 ? col * 8 + row : row * 8 + col;
+			}
+		}
+		for (int pawns = 0; pawns < 2; pawns++) {
+			int slots = 0;
+			for (int sq = 0; sq < 64; sq++)
+				if (isCanonical(pawns, sq))
+					KING_SQUARES[pawns][slots++] = sq;
+			/* Mirroring columns comes first, the only symmetry with pawns */
+			for (int sq = 0; sq < 64; sq++) {
+				int t = 0;
+				while (!isCanonical(pawns, TRANSFORM[t][sq]))
+					t++;
+				KING_TRANSFORM[pawns][sq] = t;
+				KING_SLOT[pawns][sq] = Arrays.binarySearch(KING_SQUARES[pawns], TRANSFORM[t][sq]);
+			}
+		}
+	}
+
+	private static boolean isCanonical(int pawns, int sq) {
+		int row = sq >>> 3, col = sq & 7;
+		return pawns == 1 ? col < 4 : col < 4 && row < 4 && col <= row;
+	}
+
+	private final String name;
+	/* Type and color of the piece at each place of the index, the white king first */
+	final int[] types;
+	final int[] colors;
+	private final int pawns;
+	private final int size;
+	private final long signature;
+	private final ByteBuffer values;
+
+	private Tablebase(String name, ByteBuffer values) {
+		this.name = name;
+		int n = name.length();
+		int black = name.indexOf('K', 1);
+		types = new int[n];
+		colors = new int[n];
+		boolean hasPawns = false;
+		long sig = 0;
+		for (int i = 0; i < n; i++) {
+			types[i] = LETTER_TYPES[LETTERS.indexOf(name.charAt(i))];
+			colors[i] = i < black ? Piece.WHITE : Piece.BLACK;
+			hasPawns |= types[i] == Piece.PAWN;
+			sig += signature(colors[i], types[i]);
+		}
+		this.pawns = hasPawns ? 1 : 0;
+		this.size = KING_SQUARES[pawns].length << (6 * (n - 1));
+		this.signature = sig;
+		this.values = values;
+	}
+
+	/*
+	 * An empty table to be solved, all positions UNKNOWN
+	 */
+	static Tablebase create(String material) {
+		String name = canonicalName(material);
+		byte[] values = new byte[2 * KING_SQUARES[name.indexOf('P') >= 0 ? 1 : 0].length << (6 * (name.length() - 1))];
+		Arrays.fill(values, (byte) UNKNOWN);
+		return new Tablebase(name, ByteBuffer.wrap(values));
+	}
+
+	/**
+	 * Map a tablebase file.
+	 *
+	 * @throws IOException
+	 *             if it can't be read or is not a tablebase of this version
+	 */
+	public static Tablebase open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES)
+				throw new IOException("Not a tablebase: " + file);
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (map.getLong(0) != MAGIC || map.getInt(8) != VERSION)
+				throw new IOException("Not a tablebase: " + file);
+			byte[] material = new byte[8];
+			map.position(16);
+			map.get(material);
+			String name;
+			try {
+				name = canonicalName(new String(material, StandardCharsets.US_ASCII).trim());
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Not a tablebase: " + file);
+			}
+			map.position(HEADER_BYTES);
+			Tablebase table = new Tablebase(name, map.slice());
+			if (map.getInt(12) != table.size || channel.size() != HEADER_BYTES + 2L * table.size)
+				throw new IOException("Truncated tablebase: " + file);
+			return table;
+		}
+	}
+
+	/**
+	 * Write the table to a file, replacing it.
+	 */
+	void write(Path file) throws IOException {
+		byte[] material = Arrays.copyOf(name.getBytes(StandardCharsets.US_ASCII), 8);
+		Arrays.fill(material, name.length(), 8, (byte) ' ');
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size);
+			out.write(material);
+			out.write(values.array(), values.arrayOffset(), 2 * size);
+		}
+	}
+
+	/**
+	 * Material name with the stronger side first as white, for example KRKP
+	 * for both KRKP and KPKR.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if it is not two kings with at most MAX_PIECES pieces in
+	 *             all
+	 */
+	public static String canonicalName(String material) {
+		int black = material.indexOf('K', 1);
+		if (!material.startsWith("K") || black < 0 || material.indexOf('K', black + 1) >= 0
+				|| material.length() > MAX_PIECES || material.length() < 3)
+			throw new IllegalArgumentException("Not a material set of 3 to " + MAX_PIECES + " pieces: " + material);
+		for (char c : material.toCharArray())
+			if (LETTERS.indexOf(c) < 0)
+				throw new IllegalArgumentException("Unknown piece " + c + " in " + material);
+		String white = sortSide(material.substring(0, black));
+		String other = sortSide(material.substring(black));
+		return compareSides(white, other) >= 0 ? white + other : other + white;
+	}
+
+	private static String sortSide(String side) {
+		char[] letters = side.toCharArray();
+		Arrays.sort(letters);
+		StringBuilder sorted = new StringBuilder();
+		for (char letter : LETTERS.toCharArray())
+			for (char c : letters)
+				if (c == letter)
+					sorted.append(c);
+		return sorted.toString();
+	}
+
+	/*
+	 * More pieces, then more material, then stronger pieces first
+	 */
+	private static int compareSides(String a, String b) {
+		if (a.length() != b.length())
+			return a.length() - b.length();
+		int value = 0;
+		for (char c : a.toCharArray())
+			value += LETTER_VALUES[LETTERS.indexOf(c)];
+		for (char c : b.toCharArray())
+			value -= LETTER_VALUES[LETTERS.indexOf(c)];
+		if (value != 0)
+			return value;
+		for (int i = 0; i < a.length(); i++)
+			if (a.charAt(i) != b.charAt(i))
+				return LETTERS.indexOf(b.charAt(i)) - LETTERS.indexOf(a.charAt(i));
+		return 0;
+	}
+
+	/**
+	 * The tables reached from this one by a capture or a promotion, without
+	 * the bare kings.
+	 */
+	public List<String> getSubtables() {
+		List<String> tables = new ArrayList<>();
+		for (int i = 1; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == 'K')
+				continue;
+			if (name.length() > 3) {
+				String captured = canonicalName(name.substring(0, i) + name.substring(i + 1));
+				if (!tables.contains(captured))
+					tables.add(captured);
+			}
+			if (c == 'P') {
+				String promoted = canonicalName(name.substring(0, i) + 'Q' + name.substring(i + 1));
+				if (!tables.contains(promoted))
+					tables.add(promoted);
+			}
+		}
+		return tables;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getNumPieces() {
+		return types.length;
+	}
+
+	/**
+	 * Positions with each side to move.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	boolean hasPawns() {
+		return pawns == 1;
+	}
+
+	/*
+	 * One piece of a color and type, summed over the pieces of a position
+	 * gives a key of its material
+	 */
+	static long signature(int color, int type) {
+		return 1L << (4 * (color * 6 + type));
+	}
+
+	/*
+	 * The signature with the colors swapped
+	 */
+	static long flipSignature(long signature) {
+		return (signature >>> 24) | ((signature & 0xFFFFFFL) << 24);
+	}
+
+	long getSignature() {
+		return signature;
+	}
+
+	int get(int color, int index) {
+		return values.get(color * size + index);
+	}
+
+	void set(int color, int index, int value) {
+		values.put(color * size + index, (byte) value);
+	}
+
+	/**
+	 * The longest distance to mate in the table, in plies.
+	 */
+	public int getMaxPlies() {
+		int max = 0;
+		for (int i = 0; i < 2 * size; i++) {
+			int value = values.get(i);
+			if (value != UNKNOWN)
+				max = Math.max(max, value < 0 ? -value - 1 : value);
+		}
+		return max;
+	}
+
+	/*
+	 * Index of the squares of the pieces, in the order of types and colors
+	 */
+	int index(int[] squares) {
+		int king = squares[0];
+		int t = KING_TRANSFORM[pawns][king];
+		int index = KING_SLOT[pawns][king];
+		for (int i = 1; i < squares.length; i++)
+			index = (index << 6) | TRANSFORM[t][squares[i]];
+		return index;
+	}
+
+	/*
+	 * The squares of the pieces of an index, the inverse of index(squares)
+	 */
+	void squares(int index, int[] squares) {
+		for (int i = squares.length - 1; i > 0; i--) {
+			squares[i] = index & 63;
+			index >>>= 6;
+		}
+		squares[0] = KING_SQUARES[pawns][index];
+	}
+
+	/*
+	 * Value of a position given as lists of pieces in any order. With flip
+	 * set the position is seen with the colors swapped and the board turned
+	 * upside down, the table holds the other side as white.
+	 */
+	int probe(int[] types, int[] colors, int[] squares, int n, int color, boolean flip) {
+		int used = 0;
+		int t = 0, index = 0;
+		for (int s = 0; s < this.types.length; s++) {
+			int c = flip ? Piece.getOppositeColor(this.colors[s]) : this.colors[s];
+			int i = 0;
+			while ((used & (1 << i)) != 0 || types[i] != this.types[s] || colors[i] != c)
+				i++;
+			used |= 1 << i;
+			int sq = flip ? squares[i] ^ 56 : squares[i];
+			if (s == 0) {
+				t = KING_TRANSFORM[pawns][sq];
+				index = KING_SLOT[pawns][sq];
+			} else {
+				index = (index << 6) | TRANSFORM[t][sq];
+			}
+		}
+		return get(flip ? Piece.getOppositeColor(color) : color, index);
+	}
+
+	/*
+	 * Value of the position on the board for the side to move, which must
+	 * have the material of this table. Allocates nothing, for the search.
+	 */
+	int probe(GameBoard board, boolean flip) {
+		int t = 0, index = 0;
+		for (int s = 0; s < types.length; s++) {
+			int color = flip ? Piece.getOppositeColor(colors[s]) : colors[s];
+			long pieces = board.getPieces(color, types[s]);
+			/* Skip the pieces of the same kind placed before */
+			for (int k = s - 1; k >= 0 && types[k] == types[s] && colors[k] == colors[s]; k--)
+				pieces &= pieces - 1;
+			int sq = Long.numberOfTrailingZeros(pieces);
+			if (flip)
+				sq ^= 56;
+			if (s == 0) {
+				t = KING_TRANSFORM[pawns][sq];
+				index = KING_SLOT[pawns][sq];
+			} else {
+				index = (index << 6) | TRANSFORM[t][sq];
+			}
+		}
+		int color = board.getCurrentColor();
+		return get(flip ? Piece.getOppositeColor(color) : color, index);
+	}
+}
@@ -0,0 +1,316 @@
+package vad;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates {@link Tablebase} files by retrograde analysis. The tables a
+ * capture or promotion leads to are generated (or loaded) first. Then the
+ * positions of the table are solved pass by pass: pass n finds the wins in
+ * n plies, positions with a move to a loss in n - 1 plies, and the losses
+ * in n plies, positions whose every move leads to a win of the opponent
+ * already found. Positions left when a pass finds nothing new are draws.
+ *
+ * Each pass only reads values found in earlier passes, so the positions of
+ * a pass are solved in parallel by a number of threads without locking.
+ *
+ * Usage: TablebaseGenerator directory threads material...
+ * for example TablebaseGenerator tb 8 KQK KRK KPK KBNK KQKR
+ */
+public class TablebaseGenerator {
+	/* Positions a thread takes at a time */
+	private static final int CHUNK = 1 << 12;
+
+	private final Path dir;
+	private final int threads;
+	private final Tablebases tables = new Tablebases();
+
+	public TablebaseGenerator(Path dir, int threads) {
+		this.dir = dir;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * The tables generated or loaded so far.
+	 */
+	public Tablebases getTablebases() {
+		return tables;
+	}
+
+	/**
+	 * Generate the table of a material set and the tables it depends on,
+	 * unless their files exist already.
+	 */
+	public Tablebase generate(String material) throws IOException {
+		String name = Tablebase.canonicalName(material);
+		Tablebase table = tables.get(name);
+		if (table != null)
+			return table;
+		Path file = dir.resolve(name + Tablebases.EXTENSION);
+		if (Files.exists(file)) {
+			table = Tablebase.open(file);
+			tables.add(table);
+			return table;
+		}
+
+		table = Tablebase.create(name);
+		int subPlies = 0;
+		for (String sub : table.getSubtables())
+			subPlies = Math.max(subPlies, generate(sub).getMaxPlies());
+
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			int changed = solve(pool, table, 0);
+			/* Moves into other tables can still find wins and losses up to subPlies + 1 */
+			for (int pass = 1; changed > 0 || pass <= subPlies + 1; pass++)
+				changed = solve(pool, table, pass);
+		} finally {
+			pool.shutdown();
+		}
+		for (int color : Piece.COLORS)
+			for (int i = 0; i < table.getSize(); i++)
+				if (table.get(color, i) == Tablebase.UNKNOWN)
+					table.set(color, i, Tablebase.DRAW);
+
+		table.write(file);
+		tables.add(table);
+		report(table, (System.nanoTime() - start) / 1e9);
+		return table;
+	}
+
+	/*
+	 * Run one pass over all positions on the threads of the pool and return
+	 * the number of positions it solved
+	 */
+	private int solve(ExecutorService pool, Tablebase table, int pass) {
+		AtomicInteger next = new AtomicInteger();
+		int chunks = (2 * table.getSize() + CHUNK - 1) / CHUNK;
+		List<Callable<Integer>> tasks = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			tasks.add(() -> {
+				Solver solver = new Solver(table, pass);
+				int changed = 0;
+				for (int chunk = next.getAndIncrement(); chunk < chunks; chunk = next.getAndIncrement()) {
+					int end = Math.min(2 * table.getSize(), (chunk + 1) * CHUNK);
+					for (int position = chunk * CHUNK; position < end; position++)
+						changed += solver.solve(position / table.getSize(), position % table.getSize());
+				}
+				return changed;
+			});
+		}
+		int changed = 0;
+		try {
+			for (Future<Integer> result : pool.invokeAll(tasks))
+				changed += result.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Tablebase generation failed", e);
+		}
+		return changed;
+	}
+
+	private void report(Tablebase table, double seconds) {
+		int[] counts = new int[3];
+		for (int color : Piece.COLORS) {
+			for (int i = 0; i < table.getSize(); i++) {
+				int value = table.get(color, i);
+				counts[value > 0 ? 0 : value == 0 ? 1 : 2]++;
+			}
+		}
+		System.out.format("%s: %d positions, %d won, %d drawn or impossible, %d lost, longest mate %d plies, %.1f s\n",
+				table.getName(), 2L * table.getSize(), counts[0], counts[1], counts[2], table.getMaxPlies(), seconds);
+	}
+
+	/*
+	 * Solves positions of one pass, with scratch arrays of its own
+	 */
+	private class Solver {
+		private final Tablebase table;
+		private final int pass;
+		private final int n;
+		private final int[] squares;
+		/* A position after a capture or promotion */
+		private final int[] types;
+		private final int[] colors;
+		private final int[] childSquares;
+
+		Solver(Tablebase table, int pass) {
+			this.table = table;
+			this.pass = pass;
+			this.n = table.getNumPieces();
+			this.squares = new int[n];
+			this.types = new int[n];
+			this.colors = new int[n];
+			this.childSquares = new int[n];
+		}
+
+		/*
+		 * Solve the position if this pass can, return 1 if it did
+		 */
+		int solve(int color, int index) {
+			if (table.get(color, index) != Tablebase.UNKNOWN)
+				return 0;
+			table.squares(index, squares);
+			long occupied = 0;
+			for (int i = 0; i < n; i++) {
+				long bit = 1L << squares[i];
+				if ((occupied & bit) != 0 || (table.types[i] == Piece.PAWN && (bit & (Bitboard.ROW_0 | Bitboard.ROW_7)) != 0))
+					return impossible(color, index);
+				occupied |= bit;
+			}
+			int enemy = Piece.getOppositeColor(color);
+			if (isAttacked(squares[king(enemy)], color, occupied, -1))
+				return impossible(color, index);
+
+			int king = king(color);
+			int moves = 0;
+			boolean lost = true;
+			int plies = 0;
+			for (int i = 0; i < n; i++) {
+				if (table.colors[i] != color)
+					continue;
+				int from = squares[i];
+				for (long targets = targets(i, color, occupied); targets != 0; targets &= targets - 1) {
+					int to = Long.numberOfTrailingZeros(targets);
+					int captured = -1;
+					for (int j = 0; j < n; j++)
+						if (squares[j] == to)
+							captured = j;
+					long after = (occupied ^ (1L << from)) | (1L << to);
+					squares[i] = to;
+					boolean legal = !isAttacked(squares[king], enemy, after, captured);
+					if (!legal) {
+						squares[i] = from;
+						continue;
+					}
+					moves++;
+					if (pass == 0) {
+						squares[i] = from;
+						break;
+					}
+					int value = value(i, captured, enemy);
+					squares[i] = from;
+					if (value == Tablebase.UNKNOWN) {
+						lost = false;
+					} else if (value < 0) {
+						/* The opponent is mated in -value - 1 plies */
+						if (-value - 1 <= pass - 1)
+							return set(color, index, -value);
+						lost = false;
+					} else if (value > 0 && value <= pass - 1) {
+						plies = Math.max(plies, value + 1);
+					} else {
+						lost = false;
+					}
+				}
+				if (pass == 0 && moves > 0)
+					return 0;
+			}
+			if (moves == 0) {
+				boolean check = isAttacked(squares[king], enemy, occupied, -1);
+				return set(color, index, check ? -1 : Tablebase.DRAW);
+			}
+			if (pass > 0 && lost)
+				return set(color, index, -plies - 1);
+			return 0;
+		}
+
+		private int impossible(int color, int index) {
+			table.set(color, index, Tablebase.DRAW);
+			return 0;
+		}
+
+		private int set(int color, int index, int value) {
+			if (Math.abs(value) > Tablebase.MAX_PLIES + 1)
+				throw new IllegalStateException(table.getName() + " has mates longer than " + Tablebase.MAX_PLIES + " plies");
+			table.set(color, index, value);
+			return 1;
+		}
+
+		private int king(int color) {
+			for (int i = 0; i < n; i++)
+				if (table.types[i] == Piece.KING && table.colors[i] == color)
+					return i;
+			return -1;
+		}
+
+		/*
+		 * Squares the piece at place i can move to, own pieces excluded
+		 */
+		private long targets(int i, int color, long occupied) {
+			int sq = squares[i];
+			long own = 0, enemies = 0;
+			for (int j = 0; j < n; j++) {
+				if (table.colors[j] == color)
+					own |= 1L << squares[j];
+				else
+					enemies |= 1L << squares[j];
+			}
+			if (table.types[i] != Piece.PAWN)
+				return Bitboard.attacks(table.types[i], color, sq, occupied) & ~own;
+			long targets = Bitboard.PAWN_ATTACKS[color][sq] & enemies;
+			int step = color == Piece.WHITE ? -8 : 8;
+			int ahead = sq + step;
+			if ((occupied & (1L << ahead)) == 0) {
+				targets |= 1L << ahead;
+				if ((sq >>> 3) == (color == Piece.WHITE ? 6 : 1) && (occupied & (1L << (ahead + step))) == 0)
+					targets |= 1L << (ahead + step);
+			}
+			return targets;
+		}
+
+		/*
+		 * Whether a square is attacked by the pieces of a color, except the
+		 * piece at place ignored which was just captured
+		 */
+		private boolean isAttacked(int sq, int byColor, long occupied, int ignored) {
+			for (int j = 0; j < n; j++)
+				if (j != ignored && table.colors[j] == byColor
+						&& (Bitboard.attacks(table.types[j], byColor, squares[j], occupied) & (1L << sq)) != 0)
+					return true;
+			return false;
+		}
+
+		/*
+		 * Value for the opponent after the piece at place i moved, capturing
+		 * the piece at place captured if not -1
+		 */
+		private int value(int i, int captured, int enemy) {
+			int to = squares[i];
+			boolean promotion = table.types[i] == Piece.PAWN && (to >>> 3) == (enemy == Piece.BLACK ? 0 : 7);
+			if (captured < 0 && !promotion)
+				return table.get(enemy, table.index(squares));
+			int m = 0;
+			for (int j = 0; j < n; j++) {
+				if (j == captured)
+					continue;
+				types[m] = j == i && promotion ? Piece.QUEEN : table.types[j];
+				colors[m] = table.colors[j];
+				childSquares[m++] = squares[j];
+			}
+			return tables.probe(types, colors, childSquares, m, enemy);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.out.println("Usage: TablebaseGenerator directory threads material...");
+			return;
+		}
+		Path dir = Paths.get(args[0]);
+		Files.createDirectories(dir);
+		TablebaseGenerator generator = new TablebaseGenerator(dir, Integer.parseInt(args[1]));
+		for (int i = 2; i < args.length; i++)
+			generator.generate(args[i]);
+	}
+}
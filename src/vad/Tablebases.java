@@ -0,0 +1,131 @@
+package vad;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The {@link Tablebase}s available to the search, looked up by the material
+ * on the board. A position whose stronger side is black is looked up with
+ * the colors swapped, so one table serves both sides.
+ */
+public class Tablebases {
+	public static final String EXTENSION = ".tb";
+
+	/* Replaced as a whole when a table is added, the search reads it without locking */
+	private volatile Tablebase[] tables = new Tablebase[0];
+
+	/**
+	 * Map all tablebase files in a directory.
+	 */
+	public static Tablebases load(Path dir) throws IOException {
+		Tablebases tablebases = new Tablebases();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+			for (Path file : files)
+				tablebases.add(Tablebase.open(file));
+		}
+		return tablebases;
+	}
+
+	public synchronized void add(Tablebase table) {
+		Tablebase[] added = Arrays.copyOf(tables, tables.length + 1);
+		added[tables.length] = table;
+		tables = added;
+	}
+
+	public int getNumTables() {
+		return tables.length;
+	}
+
+	/**
+	 * The table of a material set in any order, null if there is none.
+	 */
+	public Tablebase get(String material) {
+		String name = Tablebase.canonicalName(material);
+		for (Tablebase table : tables)
+			if (table.getName().equals(name))
+				return table;
+		return null;
+	}
+
+	/*
+	 * The table of a material signature, or of its colors swapped
+	 */
+	private Tablebase find(long signature) {
+		long flipped = Tablebase.flipSignature(signature);
+		for (Tablebase table : tables)
+			if (table.getSignature() == signature || table.getSignature() == flipped)
+				return table;
+		return null;
+	}
+
+	/**
+	 * Value of the position for the side to move: DRAW, plies to mate if
+	 * positive, minus plies to be mated minus one if negative, UNKNOWN if
+	 * there is no table for its material. Positions where castling is still
+	 * possible are not in the tables.
+	 */
+	public int probe(GameBoard board) {
+		int pieces = board.getNumAllPieces();
+		if (pieces > Tablebase.MAX_PIECES)
+			return Tablebase.UNKNOWN;
+		if (pieces == 2)
+			return Tablebase.DRAW;
+		long signature = 0;
+		for (int color : Piece.COLORS) {
+			if (board.getNumPieces(color, Piece.ROOK) > 0 && !board.hasKingMoved(color)
+					&& !(board.hasLRookMoved(color) && board.hasRRookMoved(color)))
+				return Tablebase.UNKNOWN;
+			for (int type = Piece.KING; type <= Piece.PAWN; type++)
+				signature += Tablebase.signature(color, type) * board.getNumPieces(color, type);
+		}
+		Tablebase table = find(signature);
+		if (table == null)
+			return Tablebase.UNKNOWN;
+		return table.probe(board, table.getSignature() != signature);
+	}
+
+	/*
+	 * Value of a position given as lists of pieces, for the generator
+	 */
+	int probe(int[] types, int[] colors, int[] squares, int n, int color) {
+		if (n == 2)
+			return Tablebase.DRAW;
+		long signature = 0;
+		for (int i = 0; i < n; i++)
+			signature += Tablebase.signature(colors[i], types[i]);
+		Tablebase table = find(signature);
+		if (table == null)
+			return Tablebase.UNKNOWN;
+		return table.probe(types, colors, squares, n, color, table.getSignature() != signature);
+	}
+
+	/**
+	 * The move that wins fastest, or draws, or loses slowest for the side to
+	 * move. NONE if the position has no legal move or a position after one
+	 * of them is not in the tables.
+	 */
+	public int bestMove(GameBoard board) {
+		MoveList moves = new MoveList();
+		board.getAllPossibleMoves(board.getCurrentColor(), moves);
+		int best = PackedMove.NONE;
+		int bestRank = Integer.MIN_VALUE;
+		for (int i = 0; i < moves.size(); i++) {
+			int move = moves.get(i);
+			board.apply(move);
+			int value = probe(board);
+			board.undo(move);
+			if (value == Tablebase.UNKNOWN)
+				return PackedMove.NONE;
+			/* The value after the move is the opponent's */
+			int rank = value < 0 ? 256 + value : value > 0 ? value - 256 : 0;
+			if (rank > bestRank) {
+				bestRank = rank;
+				best = move;
+			}
+		}
+		return best;
+	}
+}
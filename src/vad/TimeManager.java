@@ -0,0 +1,258 @@
+package vad;
+
+/**
+ * Decides how long the search of one move may run. There are four modes:
+ * <ul>
+ * <li>a fixed time per move, longer as pieces come off the board;</li>
+ * <li>a game clock of remaining time plus increment;</li>
+ * <li>a fixed number of nodes;</li>
+ * <li>a fixed depth.</li>
+ * </ul>
+ * The last two are reproducible and meant for benchmarks.
+ *
+ * A timed search has a soft and a hard limit. No iteration is started
+ * after the soft limit, or when the previous one suggests it would not end
+ * before the hard limit. The soft limit is stretched while the best move
+ * keeps changing between iterations, and shortened once it has been stable
+ * for a few. The hard limit aborts the search. The search only looks at the
+ * clock every {@link #CHECK_INTERVAL} nodes.
+ */
+public class TimeManager {
+	static final int MOVE_TIME = 0;
+	static final int CLOCK = 1;
+	static final int NODES = 2;
+	static final int DEPTH = 3;
+
+	/* Nodes searched between two looks at the clock, a power of two */
+	public static final int CHECK_INTERVAL = 1024;
+	/* Kept back on the clock for moving and lag */
+	public static final long OVERHEAD_NS = 50_000_000L;
+	/* The hard limit is at most this many times the planned time of a move */
+	public static final int HARD_LIMIT_FACTOR = 4;
+	/* Soft limit scale while the best move changes and once it is stable */
+	public static final double UNSTABLE_SCALE = 1.5;
+	public static final double STABLE_SCALE = 0.6;
+	/* Iterations with the same best move before it counts as stable */
+	public static final int STABLE_ITERATIONS = 3;
+
+	private final int mode;
+	private final long moveTimeNs;
+	private long remainingNs;
+	private long incrementNs;
+	private int movesToGo;
+	private final long nodeLimit;
+	private final int depthLimit;
+
+	/* Limits of the current search */
+	private long start;
+	private long softNs;
+	private long hardNs;
+	private long iterationStart;
+	private long lastIterationNs;
+	private int bestMove;
+	private int stableIterations;
+	private boolean bestMoveChanged;
+	/* While set the search has no limits, it runs on the opponent's time */
+	private volatile boolean pondering;
+
+	private TimeManager(int mode, long moveTimeNs, long nodeLimit, int depthLimit) {
+		this.mode = mode;
+		this.moveTimeNs = moveTimeNs;
+		this.nodeLimit = nodeLimit;
+		this.depthLimit = depthLimit;
+	}
+
+	/**
+	 * Think for the given time per move, doubled once 24, 12 and 8 or fewer
+	 * pieces are left, where fewer moves make deeper searches affordable.
+	 */
+	public static TimeManager moveTime(double seconds) {
+		return new TimeManager(MOVE_TIME, (long) (seconds * 1e9), Long.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Play on a clock. The time used by each search is taken off the
+	 * remaining time and the increment added, {@link #setClock} corrects it
+	 * from an external clock.
+	 *
+	 * @param movesToGo
+	 *            Moves to play before the time control, 0 for the rest of
+	 *            the game
+	 */
+	public static TimeManager clock(long remainingMs, long incrementMs, int movesToGo) {
+		TimeManager manager = new TimeManager(CLOCK, 0, Long.MAX_VALUE, Integer.MAX_VALUE);
+		manager.setClock(remainingMs, incrementMs, movesToGo);
+		return manager;
+	}
+
+	/**
+	 * Search each move until a searcher has visited the given number of
+	 * nodes, regardless of time.
+	 */
+	public static TimeManager fixedNodes(long nodes) {
+		return new TimeManager(NODES, 0, nodes, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Search each move to the given depth, regardless of time.
+	 */
+	public static TimeManager fixedDepth(int depth) {
+		return new TimeManager(DEPTH, 0, Long.MAX_VALUE, depth);
+	}
+
+	public void setClock(long remainingMs, long incrementMs, int movesToGo) {
+		this.remainingNs = remainingMs * 1_000_000L;
+		this.incrementNs = incrementMs * 1_000_000L;
+		this.movesToGo = movesToGo;
+	}
+
+	/**
+	 * Time left on the clock, in milliseconds.
+	 */
+	public long getRemainingMs() {
+		return remainingNs / 1_000_000L;
+	}
+
+	/**
+	 * Soft limit of the current search in milliseconds, Long.MAX_VALUE if
+	 * it has none.
+	 */
+	public long getSoftLimitMs() {
+		return softNs == Long.MAX_VALUE ? Long.MAX_VALUE : softNs / 1_000_000L;
+	}
+
+	/**
+	 * Hard limit of the current search in milliseconds, Long.MAX_VALUE if
+	 * it has none.
+	 */
+	public long getHardLimitMs() {
+		return hardNs == Long.MAX_VALUE ? Long.MAX_VALUE : hardNs / 1_000_000L;
+	}
+
+	/**
+	 * Deepest iteration the search may start.
+	 */
+	public int getMaxDepth() {
+		return depthLimit;
+	}
+
+	/**
+	 * Start timing the search of a move on the given board.
+	 */
+	public void startSearch(GameBoard board) {
+		start = System.nanoTime();
+		iterationStart = start;
+		lastIterationNs = 0;
+		bestMove = PackedMove.NONE;
+		stableIterations = 0;
+		bestMoveChanged = false;
+		pondering = false;
+		if (mode == MOVE_TIME) {
+			int factor = phaseFactor(board.getNumAllPieces());
+			softNs = hardNs = moveTimeNs > Long.MAX_VALUE / factor ? Long.MAX_VALUE : moveTimeNs * factor;
+		} else if (mode == CLOCK) {
+			long available = Math.max(0, remainingNs - OVERHEAD_NS);
+			long planned = available / movesLeft(board.getNumAllPieces()) + incrementNs * 3 / 4;
+			hardNs = Math.min(available, planned * HARD_LIMIT_FACTOR);
+			softNs = Math.min(planned, hardNs);
+		} else {
+			softNs = hardNs = Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Start a search on the opponent's time. It runs without limits until
+	 * {@link #ponderHit()}, the limits are planned for the given board.
+	 */
+	public void startPondering(GameBoard board) {
+		startSearch(board);
+		pondering = true;
+	}
+
+	/**
+	 * The opponent played the predicted move: the search continues as if it
+	 * was started now, only the time from now on counts.
+	 */
+	public void ponderHit() {
+		start = System.nanoTime();
+		pondering = false;
+	}
+
+	/**
+	 * Book the time used by the search on the clock.
+	 */
+	public void endSearch() {
+		/* A search stopped while still pondering ran on the opponent's time */
+		if (mode != CLOCK || pondering)
+			return;
+		remainingNs += incrementNs - (System.nanoTime() - start);
+		if (movesToGo > 0)
+			movesToGo--;
+	}
+
+	/*
+	 * Doubles the move time at 24, 12 and 8 pieces left
+	 */
+	static int phaseFactor(int pieces) {
+		if (pieces <= 8)
+			return 8;
+		if (pieces <= 12)
+			return 4;
+		if (pieces <= 24)
+			return 2;
+		return 1;
+	}
+
+	/*
+	 * Moves the remaining time is split over: the moves to the time control
+	 * if known, otherwise fewer as pieces come off the board
+	 */
+	private int movesLeft(int pieces) {
+		if (movesToGo > 0)
+			return movesToGo;
+		return Math.max(16, Math.min(40, pieces + 8));
+	}
+
+	/**
+	 * Whether the node budget only allows the given number of nodes, so the
+	 * search has to ask after every node instead of every CHECK_INTERVAL.
+	 */
+	public boolean isNodeLimited() {
+		return mode == NODES;
+	}
+
+	/**
+	 * Whether a searcher that visited the given number of nodes must abort.
+	 */
+	public boolean isHardLimitReached(long nodes) {
+		if (pondering)
+			return false;
+		if (mode == NODES)
+			return nodes >= nodeLimit;
+		return hardNs != Long.MAX_VALUE && System.nanoTime() - start > hardNs;
+	}
+
+	/**
+	 * Called after every completed iteration with its best move, tells
+	 * whether the next iteration should be started.
+	 */
+	public boolean canStartIteration(int move) {
+		long now = System.nanoTime();
+		long iterationNs = now - iterationStart;
+		iterationStart = now;
+		bestMoveChanged = move != bestMove && bestMove != PackedMove.NONE;
+		stableIterations = move == bestMove ? stableIterations + 1 : 0;
+		bestMove = move;
+
+		if (pondering || softNs == Long.MAX_VALUE)
+			return true;
+		long elapsed = now - start;
+		double scale = bestMoveChanged ? UNSTABLE_SCALE : stableIterations >= STABLE_ITERATIONS ? STABLE_SCALE : 1.0;
+		if (elapsed > Math.min(softNs * scale, hardNs))
+			return false;
+		/* The next iteration takes about as much longer as the last one did */
+		double growth = lastIterationNs == 0 ? 2.0 : Math.max(1.5, Math.min(8.0, iterationNs / (double) lastIterationNs));
+		lastIterationNs = Math.max(1, iterationNs);
+		return elapsed + iterationNs * growth <= hardNs;
+	}
+}
@@ -0,0 +1,280 @@
+package vad;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Fixed size transposition table packed into a long array. The table never
+ * grows and never allocates after construction, old entries are overwritten
+ * instead.
+ *
+ * Every entry takes two longs:
+ *
+ * <pre>
+ * meta:   key verification (32) | best move (16) | depth (8) | age (8)
+ * bounds: lower bound (32) | upper bound (32)
+ * </pre>
+ *
+ * The low bits of the Zobrist key select a bucket of two entries. The first
+ * slot is depth-preferred and only replaced by an equal or deeper search or
+ * by an entry from a newer search, the second slot is always replaced.
+ *
+ * The table is shared by all search threads without locking. The meta word
+ * is stored XORed with the bounds word, so an entry torn by two threads
+ * writing at once fails key verification and reads as a miss.
+ *
+ * This table lives on the Java heap, {@link OffHeapTranspositionTable} keeps
+ * the same entries in native memory.
+ *
+ * A table can be saved to a snapshot file and loaded into a table of the
+ * same size in a later game or run. The file is written and read through
+ * memory mapping, little endian:
+ *
+ * <pre>
+ * magic (8) | version (4) | age (4) | buckets (8) | checksum (8) | entries
+ * </pre>
+ *
+ * The age is restored with the entries, so the next search treats them as
+ * older than its own and replaces them first.
+ */
+public class TranspositionTable {
+	public static final int DEFAULT_SIZE_MB = 256;
+
+	static final int LONGS_PER_ENTRY = 2;
+	static final int ENTRIES_PER_BUCKET = 2;
+	static final int LONGS_PER_BUCKET = LONGS_PER_ENTRY * ENTRIES_PER_BUCKET;
+	static final int BYTES_PER_BUCKET = LONGS_PER_BUCKET * 8;
+	/* Largest power of two bucket count a Java long[] can hold */
+	static final long MAX_BUCKETS = 1L << 28;
+
+	static final long SNAPSHOT_MAGIC = 0x5641445F54544142L;
+	static final int SNAPSHOT_VERSION = 1;
+	static final int SNAPSHOT_HEADER_BYTES = 32;
+	/* Longs mapped at once, 1 GB */
+	static final int SNAPSHOT_CHUNK_LONGS = 1 << 27;
+	/* FNV-1a over the entry longs */
+	static final long CHECKSUM_BASIS = 0xCBF29CE484222325L;
+	static final long CHECKSUM_PRIME = 0x100000001B3L;
+
+	static final long KEY_MASK = 0xFFFFFFFF00000000L;
+	static final int MOVE_SHIFT = 16;
+	static final int DEPTH_SHIFT = 8;
+
+	private final long[] table;
+	private final long bucketMask;
+	private volatile int age;
+
+	public TranspositionTable(int sizeMB) {
+		this(buckets(sizeMB, MAX_BUCKETS), true);
+	}
+
+	/*
+	 * Table of the given power of two number of buckets, stored in a long
+	 * array or by a subclass overriding read, write and clear
+	 */
+	TranspositionTable(long buckets, boolean onHeap) {
+		table = onHeap ? new long[(int) (buckets * LONGS_PER_BUCKET)] : null;
+		bucketMask = buckets - 1;
+	}
+
+	/*
+	 * Most buckets up to maxBuckets that fit in sizeMB, a power of two
+	 */
+	static long buckets(long sizeMB, long maxBuckets) {
+		long buckets = Long.highestOneBit(Math.max(1, (sizeMB << 20) / BYTES_PER_BUCKET));
+		return Math.min(buckets, maxBuckets);
+	}
+
+	long read(long index) {
+		return table[(int) index];
+	}
+
+	void write(long index, long value) {
+		table[(int) index] = value;
+	}
+
+	/**
+	 * Start a new search. Entries from previous searches are replaced first.
+	 */
+	public void newSearch() {
+		age = (age + 1) & 0xFF;
+	}
+
+	public void clear() {
+		clearEntries();
+		age = 0;
+	}
+
+	void clearEntries() {
+		Arrays.fill(table, 0);
+	}
+
+	public int getSizeMB() {
+		return (int) ((getNumBuckets() * BYTES_PER_BUCKET) >> 20);
+	}
+
+	public long getNumEntries() {
+		return getNumBuckets() * ENTRIES_PER_BUCKET;
+	}
+
+	long getNumBuckets() {
+		return bucketMask + 1;
+	}
+
+	private long bucket(long key) {
+		return (key & bucketMask) * LONGS_PER_BUCKET;
+	}
+
+	/**
+	 * Look up a position.
+	 *
+	 * @param key
+	 *            Zobrist key of the position
+	 * @param out
+	 *            Entry to copy the stored data into
+	 * @return whether the position was found
+	 */
+	public boolean probe(long key, TranspositionTableEntry out) {
+		long b = bucket(key);
+		for (long i = b; i < b + LONGS_PER_BUCKET; i += LONGS_PER_ENTRY) {
+			long bounds = read(i + 1);
+			long meta = read(i) ^ bounds;
+			if (meta != 0 && (meta & KEY_MASK) == (key & KEY_MASK)) {
+				out.set(meta, bounds);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Store the result of a search.
+	 *
+	 * @param key
+	 *            Zobrist key of the position
+	 * @param lower
+	 *            Lower bound of the score
+	 * @param upper
+	 *            Upper bound of the score
+	 * @param depth
+	 *            Remaining depth the position was searched to
+	 * @param move
+	 *            Best {@link PackedMove packed move}, only its start and
+	 *            destination squares are kept, NONE for none
+	 */
+	public void store(long key, int lower, int upper, int depth, int move) {
+		long b = bucket(key);
+		move = PackedMove.getFromTo(move);
+		long meta = (key & KEY_MASK) | ((long) move << MOVE_SHIFT)
+				| ((long) Math.min(depth, 0xFF) << DEPTH_SHIFT) | age;
+		long bounds = ((long) lower << 32) | (upper & 0xFFFFFFFFL);
+
+		long slot = b;
+		long stored = read(b) ^ read(b + 1);
+		boolean sameKey = (stored & KEY_MASK) == (key & KEY_MASK);
+		if (stored != 0 && !sameKey && (int) (stored & 0xFF) == age
+				&& ((stored >>> DEPTH_SHIFT) & 0xFF) > depth) {
+			/* Keep the deeper entry of this search, use the always-replace slot */
+			slot = b + LONGS_PER_ENTRY;
+		} else if (sameKey && move == 0) {
+			/* Don't lose the best move of a previous search of this position */
+			meta |= stored & (0xFFFFL << MOVE_SHIFT);
+		}
+		write(slot, meta ^ bounds);
+		write(slot + 1, bounds);
+	}
+
+	/**
+	 * Write all entries to a snapshot file, replacing it. Searches may keep
+	 * running, entries they tear read as misses after loading. The header is
+	 * written last, an interrupted save leaves no valid snapshot.
+	 */
+	public void save(Path file) throws IOException {
+		long longs = getNumBuckets() * LONGS_PER_BUCKET;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long checksum = CHECKSUM_BASIS;
+			for (long start = 0; start < longs; start += SNAPSHOT_CHUNK_LONGS) {
+				int count = (int) Math.min(SNAPSHOT_CHUNK_LONGS, longs - start);
+				MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE,
+						SNAPSHOT_HEADER_BYTES + start * 8, count * 8L);
+				LongBuffer entries = map.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+				for (int i = 0; i < count; i++) {
+					long value = read(start + i);
+					entries.put(i, value);
+					checksum = (checksum ^ value) * CHECKSUM_PRIME;
+				}
+				map.force();
+			}
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, SNAPSHOT_HEADER_BYTES);
+			header.order(ByteOrder.LITTLE_ENDIAN).putLong(0, SNAPSHOT_MAGIC).putInt(8, SNAPSHOT_VERSION)
+					.putInt(12, age).putLong(16, getNumBuckets()).putLong(24, checksum);
+			header.force();
+		}
+	}
+
+	/**
+	 * Replace all entries by those of a snapshot file.
+	 *
+	 * @return whether the snapshot was loaded. Nothing is loaded if the file
+	 *         does not exist, was written by another version or for a table
+	 *         of another size. A snapshot failing its checksum leaves the
+	 *         table empty.
+	 */
+	public boolean load(Path file) throws IOException {
+		if (!Files.isRegularFile(file))
+			return false;
+		long longs = getNumBuckets() * LONGS_PER_BUCKET;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() != SNAPSHOT_HEADER_BYTES + longs * 8)
+				return false;
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER_BYTES)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getLong(0) != SNAPSHOT_MAGIC || header.getInt(8) != SNAPSHOT_VERSION
+					|| header.getLong(16) != getNumBuckets())
+				return false;
+
+			long checksum = CHECKSUM_BASIS;
+			for (long start = 0; start < longs; start += SNAPSHOT_CHUNK_LONGS) {
+				int count = (int) Math.min(SNAPSHOT_CHUNK_LONGS, longs - start);
+				LongBuffer entries = channel
+						.map(FileChannel.MapMode.READ_ONLY, SNAPSHOT_HEADER_BYTES + start * 8, count * 8L)
+						.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+				for (int i = 0; i < count; i++) {
+					long value = entries.get(i);
+					write(start + i, value);
+					checksum = (checksum ^ value) * CHECKSUM_PRIME;
+				}
+			}
+			if (checksum != header.getLong(24)) {
+				clear();
+				return false;
+			}
+			age = header.getInt(12) & 0xFF;
+			return true;
+		}
+	}
+
+	/**
+	 * Per mille of the sampled entries that were written in the current
+	 * search.
+	 */
+	public int getUsagePermille() {
+		int sampled = (int) Math.min(1000, getNumEntries());
+		int used = 0;
+		for (int i = 0; i < sampled; i++) {
+			long meta = read(i * LONGS_PER_ENTRY) ^ read(i * LONGS_PER_ENTRY + 1);
+			if (meta != 0 && (int) (meta & 0xFF) == age)
+				used++;
+		}
+		return used * 1000 / sampled;
+	}
+}
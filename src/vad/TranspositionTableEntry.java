@@ -1,14 +1,20 @@
 package vad;
 
+/**
+ * Decoded transposition table entry. The table itself stores primitives
+ * only, probing copies an entry into a reusable instance of this class.
+ */
 public class TranspositionTableEntry {
 	private int lower;
 	private int upper;
-	private Move bestMove;
+	private int depth;
+	private int bestMove;
 	
-	public TranspositionTableEntry(int lower, int upper, Move best){
-		this.lower=lower;
-		this.upper=upper;
-		this.bestMove = best;
+	void set(long meta, long bounds) {
+		this.lower = (int) (bounds >> 32);
+		this.upper = (int) bounds;
+		this.depth = (int) ((meta >>> TranspositionTable.DEPTH_SHIFT) & 0xFF);
+		this.bestMove = (int) ((meta >>> TranspositionTable.MOVE_SHIFT) & 0xFFFF);
 	}
 	
 	public int getLower() {
@@ -19,7 +25,15 @@ public class TranspositionTableEntry {
 		return this.upper;
 	}
 	
-	public Move getMove() {
+	public int getDepth() {
+		return this.depth;
+	}
+	
+	/**
+	 * Start and destination squares of the best move, rebuild it with
+	 * {@link PackedMove#fromTo(GameBoard, int)}. NONE if there is none.
+	 */
+	public int getMove() {
 		return this.bestMove;
 	}
 }
@@ -59,7 +59,8 @@ public class UserPlayer implements Player, ClickListener
 				gui.clearReachablity();
 				return;
 			}
-			possibleMoves = MoveHelper.getAllMoves4Piece(board, position, false);
+			possibleMoves = new ArrayList<>();
+			MoveHelper.getLegalMoves(board, playerColor, Bitboard.bit(position), false, possibleMoves);
 			if (!possibleMoves.isEmpty())
 			{
 				gui.clearReachablity();
@@ -0,0 +1,54 @@
+package vad;
+
+import java.util.Random;
+
+/**
+ * Zobrist hashing keys. The position key is the XOR of one key per occupied
+ * square, one per castling flag state of each color and the side to move key
+ * when black is to move. The seed is fixed so keys are stable across runs.
+ */
+public class Zobrist {
+	public static final long SEED = 0x5EEDC4E55L;
+
+	public static final long[][][] PIECE_SQUARE = new long[Piece.COLORS.length][Piece.NAMES.length][64];
+	/* Indexed by the 4 bit whiteFlags/blackFlags value */
+	public static final long[][] FLAGS = new long[Piece.COLORS.length][16];
+	public static final long BLACK_TO_MOVE;
+
+	static {
+		Random r = new Random(SEED);
+		for (int color = 0; color < Piece.COLORS.length; color++)
+			for (int type = 0; type < Piece.NAMES.length; type++)
+				for (int sq = 0; sq < 64; sq++)
+					PIECE_SQUARE[color][type][sq] = r.nextLong();
+		for (int color = 0; color < Piece.COLORS.length; color++)
+			for (int flags = 1; flags < 16; flags++)
+				FLAGS[color][flags] = r.nextLong();
+		BLACK_TO_MOVE = r.nextLong();
+	}
+
+	public static long piece(Piece piece, int square) {
+		return PIECE_SQUARE[piece.getColor()][piece.getType()][square];
+	}
+
+	public static long sideToMove(int color) {
+		return color == Piece.BLACK ? BLACK_TO_MOVE : 0L;
+	}
+
+	/**
+	 * Compute a key from scratch. GameBoard keeps its key up to date
+	 * incrementally, this is only needed after fields are set directly.
+	 */
+	public static long compute(GameBoard board) {
+		long key = 0;
+		for (int sq = 0; sq < 64; sq++) {
+			Piece p = board.getPiece(sq);
+			if (p != null)
+				key ^= piece(p, sq);
+		}
+		key ^= FLAGS[Piece.WHITE][board.whiteFlags & 0xF];
+		key ^= FLAGS[Piece.BLACK][board.blackFlags & 0xF];
+		key ^= sideToMove(board.currentColor);
+		return key;
+	}
+}